@@ -0,0 +1,38 @@
+package learn.petgallery.data;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    // Smooth gradients with a little grain, roughly how a photo compresses: flat test images flatter PNG,
+    // pure noise punishes it.
+    static BufferedImage photo(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grain = random.nextInt(16);
+                int r = (x * 255 / width + grain) & 0xFF;
+                int g = (y * 255 / height + grain) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + grain) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException(String.format("No image writer for '%s'.", format));
+        }
+        return out.toByteArray();
+    }
+}
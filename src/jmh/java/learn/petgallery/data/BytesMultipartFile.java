@@ -0,0 +1,63 @@
+package learn.petgallery.data;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+// spring-test's MockMultipartFile isn't on the benchmark classpath.
+class BytesMultipartFile implements MultipartFile {
+
+    private final String filename;
+    private final String contentType;
+    private final byte[] bytes;
+
+    BytesMultipartFile(String filename, String contentType, byte[] bytes) {
+        this.filename = filename;
+        this.contentType = contentType;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return filename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return bytes.length == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return bytes.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.write(dest.toPath(), bytes);
+    }
+}
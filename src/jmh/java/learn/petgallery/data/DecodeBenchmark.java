@@ -0,0 +1,84 @@
+package learn.petgallery.data;
+
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Decode-then-resize for one variant, full decode against ImageDecoder's subsampled decode. Run with
+// "-prof gc" to compare allocation per upload. Setup prints how far the subsampled result is from the
+// full one (mean absolute difference per channel, 0-255), so quality is reported next to the timings.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"2400", "4000", "6000"})
+    int width;
+
+    @Param({"200", "1200"})
+    int targetWidth;
+
+    @Param({"jpg", "png"})
+    String format;
+
+    private final ImageDecoder full = new ImageDecoder(0);
+    private final ImageDecoder subsampled = new ImageDecoder(2);
+    private BytesMultipartFile file;
+
+    @Setup
+    public void setup() throws IOException {
+        String contentType = format.equals("jpg") ? "image/jpeg" : "image/png";
+        byte[] bytes = BenchmarkImages.encode(BenchmarkImages.photo(width, width * 3 / 4), format);
+        file = new BytesMultipartFile("upload." + format, contentType, bytes);
+
+        BufferedImage reference = resize(full);
+        BufferedImage candidate = resize(subsampled);
+        System.out.printf("%n%dpx %s -> %dpx: subsampling %d, mean difference %.2f%n", width, format, targetWidth,
+                subsampled.subsampling(width, targetWidth), meanDifference(reference, candidate));
+    }
+
+    @Benchmark
+    public BufferedImage fullDecode() throws IOException {
+        return resize(full);
+    }
+
+    @Benchmark
+    public BufferedImage subsampledDecode() throws IOException {
+        return resize(subsampled);
+    }
+
+    private BufferedImage resize(ImageDecoder decoder) throws IOException {
+        return Scalr.resize(decoder.decode(file, targetWidth), Scalr.Mode.FIT_TO_WIDTH, targetWidth);
+    }
+
+    private static double meanDifference(BufferedImage a, BufferedImage b) {
+        int height = Math.min(a.getHeight(), b.getHeight());
+        long total = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return (double) total / ((long) a.getWidth() * height * 3);
+    }
+}
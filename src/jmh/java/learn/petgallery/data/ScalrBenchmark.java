@@ -0,0 +1,49 @@
+package learn.petgallery.data;
+
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Scalr's quality modes at the configured variant widths. S3FileRepository uses AUTOMATIC, which picks
+// a mode from the target size.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScalrBenchmark {
+
+    @Param({"AUTOMATIC", "SPEED", "BALANCED", "QUALITY", "ULTRA_QUALITY"})
+    Scalr.Method method;
+
+    @Param({"2400", "4000"})
+    int sourceWidth;
+
+    @Param({"200", "600", "1200"})
+    int targetWidth;
+
+    private BufferedImage source;
+
+    @Setup
+    public void setup() {
+        source = BenchmarkImages.photo(sourceWidth, sourceWidth * 3 / 4);
+    }
+
+    @Benchmark
+    public BufferedImage resize() {
+        return Scalr.resize(source, method, Scalr.Mode.FIT_TO_WIDTH, targetWidth);
+    }
+}
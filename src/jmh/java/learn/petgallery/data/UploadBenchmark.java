@@ -0,0 +1,75 @@
+package learn.petgallery.data;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.StoredImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// The whole S3FileRepository upload pipeline (decode once, resize per variant, encode, store), blocking and
+// async, against S3 stand-ins, with the application's default variants and buffer sizes.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadBenchmark {
+
+    @Param({"800", "2400", "4000"})
+    int width;
+
+    @Param({"jpg", "png"})
+    String format;
+
+    private ExecutorService partUploadExecutor;
+    private ExecutorService imageEncodeExecutor;
+    private S3FileRepository repository;
+    private BytesMultipartFile file;
+
+    @Setup
+    public void setup() throws IOException {
+        partUploadExecutor = Executors.newFixedThreadPool(8);
+        imageEncodeExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        repository = new S3FileRepository(new DiscardingS3Client(), new DiscardingS3AsyncClient(), "benchmark",
+                new ImageVariants("thumbnail:200,medium:600,full:1200"),
+                new ImageEncoder(0.85f, true, false, true, false), new ImageDecoder(2),
+                new ImagePlaceholderEncoder(), new ByteBufferPool(16, 8 * 1024 * 1024), partUploadExecutor, 4,
+                imageEncodeExecutor, new SimpleMeterRegistry());
+
+        String contentType = format.equals("jpg") ? "image/jpeg" : "image/png";
+        byte[] bytes = BenchmarkImages.encode(BenchmarkImages.photo(width, width * 3 / 4), format);
+        file = new BytesMultipartFile("upload." + format, contentType, bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        partUploadExecutor.shutdown();
+        imageEncodeExecutor.shutdown();
+    }
+
+    @Benchmark
+    public StoredImage upload() throws FileUploadException {
+        return repository.upload(file, file.getOriginalFilename());
+    }
+
+    @Benchmark
+    public StoredImage uploadAsync() {
+        return repository.uploadAsync(file, file.getOriginalFilename()).join();
+    }
+}
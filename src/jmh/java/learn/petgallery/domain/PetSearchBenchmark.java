@@ -0,0 +1,75 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One page of search results from PetNameIndex at a million pets, from a rare full name down to a one-letter
+// prefix that matches most of the table. Setup prints the heap the index retains, measured around the build.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class PetSearchBenchmark {
+
+    private static final String[] FIRST = {"Fluffy", "Smoke", "Magpie", "Max", "Bella", "Luna", "Charlie", "Lucy",
+            "Cooper", "Daisy", "Milo", "Bailey", "Rocky", "Sadie", "Buddy", "Molly", "Bear", "Stella", "Tucker",
+            "Zoe", "Oliver", "Lola", "Leo", "Penny", "Duke", "Ruby", "Winston", "Rosie", "Murphy", "Coco"};
+    private static final String[] SECOND = {"the Cat", "the Dog", "Junior", "II", "Biscuit", "Pepper", "von Whiskers",
+            "Mc Floof", "Boots", "Shadow", "Pickles", "Noodle", "Peanut", "Waffles", "Nugget"};
+
+    @Param({"1000000"})
+    int pets;
+
+    @Param({"zephyrine", "magpie", "ma", "m", "the d", "max pick"})
+    String query;
+
+    private PetNameIndex index;
+
+    @Setup
+    public void setup() {
+        long before = usedHeap();
+        index = new PetNameIndex(null, 10_000, new SimpleMeterRegistry());
+        Random random = new Random(42);
+        for (int id = 1; id <= pets; id++) {
+            String name = FIRST[random.nextInt(FIRST.length)];
+            if (random.nextInt(3) > 0) {
+                name += " " + SECOND[random.nextInt(SECOND.length)];
+            }
+            // A sprinkling of unique names, like the rare query above.
+            if (random.nextInt(1000) == 0) {
+                name += " Zephyrine" + id;
+            }
+            index.put(id, name);
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%n%d pets indexed, retaining about %d MB%n", pets, retained / (1024 * 1024));
+    }
+
+    @Benchmark
+    public PetNameIndex.Hits search() {
+        return index.search(query, 0, 50);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,60 @@
+package learn.petgallery.domain;
+
+import learn.petgallery.models.Pet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.validation.Validation;
+import jakarta.validation.ValidatorFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Validation runs for every pet written, one by one or in batches of thousands. Bean Validation caches
+// constraint metadata per class, so this measures the steady state after the first call.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PetServiceBenchmark {
+
+    private ValidatorFactory validatorFactory;
+    private PetService service;
+    private Pet validPet;
+    private Pet invalidPet;
+
+    @Setup
+    public void setup() {
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        // validate never touches the repository.
+        service = new PetService(null, null, null, validatorFactory.getValidator(), 50, 200, 50, 5000);
+        validPet = new Pet(1, "Fluffy", "https://example.com/full/image-1.png",
+                Map.of("thumbnail", "https://example.com/thumbnail/image-1.png"));
+        invalidPet = new Pet(1, " ", "not a url");
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public Result<Void> validateValidPet() {
+        return service.validate(validPet);
+    }
+
+    @Benchmark
+    public Result<Void> validateInvalidPet() {
+        return service.validate(invalidPet);
+    }
+}
@@ -0,0 +1,62 @@
+package learn.petgallery.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Serializing the pet list the way GET /api/pet does, with the ObjectMapper setup Spring Boot uses.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PetJsonBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int size;
+
+    private ObjectMapper objectMapper;
+    private List<Pet> pets;
+
+    @Setup
+    public void setup() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        pets = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            Pet pet = new Pet(i, "Pet " + i, "https://example.com/full/image-" + i + ".png", Map.of(
+                    "thumbnail", "https://example.com/thumbnail/image-" + i + ".png",
+                    "medium", "https://example.com/medium/image-" + i + ".png",
+                    "full", "https://example.com/full/image-" + i + ".png"));
+            pet.setVersion(i % 5);
+            pet.setUpdatedAt(Instant.ofEpochSecond(1_700_000_000L + i));
+            pets.add(pet);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws Exception {
+        return objectMapper.writeValueAsBytes(pets);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws Exception {
+        return objectMapper.writeValueAsBytes(new PetPage(pets, size));
+    }
+}
@@ -0,0 +1,82 @@
+package learn.petgallery.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.SerializationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// CPU per format for the GET /api/pet list, with and without the gzip Tomcat applies (default level).
+// Bytes on the wire for each format are printed once per trial.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PetWireFormatBenchmark {
+
+    @Param({"100", "10000"})
+    int size;
+
+    @Param({"json", "smile", "cbor"})
+    String format;
+
+    private ObjectMapper objectMapper;
+    private List<Pet> pets;
+
+    @Setup
+    public void setup() throws IOException {
+        objectMapper = switch (format) {
+            case "smile" -> SerializationConfig.binaryMapper(new Jackson2ObjectMapperBuilder(),
+                    SerializationConfig.smileFactory());
+            case "cbor" -> SerializationConfig.binaryMapper(new Jackson2ObjectMapperBuilder(),
+                    SerializationConfig.cborFactory());
+            default -> Jackson2ObjectMapperBuilder.json().build();
+        };
+        pets = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            Pet pet = new Pet(i, "Pet " + i, "https://example.com/full/image-" + i + ".png", Map.of(
+                    "thumbnail", "https://example.com/thumbnail/image-" + i + ".png",
+                    "medium", "https://example.com/medium/image-" + i + ".png",
+                    "full", "https://example.com/full/image-" + i + ".png"));
+            pet.setVersion(i % 5);
+            pet.setUpdatedAt(Instant.ofEpochSecond(1_700_000_000L + i));
+            pets.add(pet);
+        }
+        System.out.printf("%n%s, %d pets: %d bytes, %d gzipped%n",
+                format, size, serialize().length, serializeGzip().length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return objectMapper.writeValueAsBytes(pets);
+    }
+
+    @Benchmark
+    public byte[] serializeGzip() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(outputStream)) {
+            objectMapper.writeValue(gzip, pets);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,256 @@
+package learn.petgallery.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds a fixed number of connections open against a running server, each sending requests back to back,
+ * and reports client-side throughput and latency next to the server's own heap, thread and RSS peaks.
+ * Run it once against a server started with VIRTUAL_THREADS_ENABLED=false and once with true, then
+ * compare the two JSON files.
+ * <p>
+ * Options are name=value pairs, all optional: url, connections, seconds, warmup-seconds, label, pid (the
+ * server's, to sample its RSS from /proc) and output.
+ */
+public class LoadTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        URI url = URI.create(options.getOrDefault("url", "http://localhost:8080/api/pet?limit=50"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("seconds", "60")));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup-seconds", "10")));
+        String label = options.getOrDefault("label", "run");
+        Path output = Path.of(options.getOrDefault("output", "target/loadtest-" + label + ".json"));
+        Long pid = options.containsKey("pid") ? Long.parseLong(options.get("pid")) : null;
+
+        ServerSampler sampler = new ServerSampler(url, pid);
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        HttpRequest request = HttpRequest.newBuilder(url).timeout(Duration.ofSeconds(60)).GET().build();
+
+        System.out.printf("Warming up %s with %d connections for %ss%n", url, connections, warmup.toSeconds());
+        run(client, request, connections, warmup);
+
+        System.out.printf("Measuring for %ss%n", duration.toSeconds());
+        sampler.start();
+        Run measured = run(client, request, connections, duration);
+        sampler.stop();
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("label", label);
+        report.put("url", url.toString());
+        report.put("connections", connections);
+        report.put("seconds", duration.toSeconds());
+        report.put("requests", measured.latenciesNanos.length);
+        report.put("errors", measured.errors);
+        report.put("throughputPerSecond", measured.latenciesNanos.length / (double) duration.toSeconds());
+        report.put("latencyMillis", measured.percentiles());
+        report.put("server", sampler.peaks());
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        objectMapper.writeValue(output.toFile(), report);
+        System.out.println(objectMapper.writeValueAsString(report));
+        System.exit(0);
+    }
+
+    private static Run run(HttpClient client, HttpRequest request, int connections, Duration duration)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[connections][];
+        List<Thread> workers = new ArrayList<>();
+
+        for (int i = 0; i < connections; i++) {
+            LatencyLog log = new LatencyLog();
+            int index = i;
+            workers.add(Thread.ofVirtual().start(() -> {
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() >= 400) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        log.add(System.nanoTime() - start);
+                    } catch (IOException ex) {
+                        errors.incrementAndGet();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                latencies[index] = log.toArray();
+            }));
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(all);
+        return new Run(all, errors.get());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 1) {
+                throw new IllegalArgumentException(String.format("Expected name=value, got '%s'.", arg));
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private record Run(long[] latenciesNanos, long errors) {
+
+        Map<String, Double> percentiles() {
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            for (double p : new double[]{50, 90, 99, 99.9}) {
+                percentiles.put("p" + (p == Math.floor(p) ? String.valueOf((int) p) : String.valueOf(p)), at(p));
+            }
+            percentiles.put("max", at(100));
+            return percentiles;
+        }
+
+        private double at(double percentile) {
+            if (latenciesNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latenciesNanos.length) - 1;
+            return latenciesNanos[Math.max(0, Math.min(index, latenciesNanos.length - 1))] / 1_000_000.0;
+        }
+    }
+
+    private static class LatencyLog {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // Polls the server's actuator (and /proc for RSS, when the pid is known) once a second and keeps the peaks.
+    // Platform thread stacks live outside the heap, so RSS is the number that shows their cost.
+    private static class ServerSampler {
+
+        private final HttpClient client = HttpClient.newHttpClient();
+        private final URI actuator;
+        private final Long pid;
+        private final Map<String, Double> peaks = new LinkedHashMap<>();
+        private volatile boolean running;
+        private Thread thread;
+
+        ServerSampler(URI url, Long pid) {
+            this.actuator = url.resolve("/actuator/metrics/");
+            this.pid = pid;
+        }
+
+        void start() {
+            running = true;
+            thread = Thread.ofPlatform().daemon().start(() -> {
+                while (running) {
+                    sample();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.interrupt();
+            thread.join();
+            sample();
+        }
+
+        Map<String, Double> peaks() {
+            return peaks;
+        }
+
+        private void sample() {
+            record("heapUsedBytes", metric("jvm.memory.used?tag=area:heap"));
+            record("nonHeapUsedBytes", metric("jvm.memory.used?tag=area:nonheap"));
+            record("liveThreads", metric("jvm.threads.live"));
+            record("processCpuUsage", metric("process.cpu.usage"));
+            if (pid != null) {
+                record("rssBytes", rss());
+            }
+        }
+
+        private void record(String name, Double value) {
+            if (value != null) {
+                peaks.merge(name, value, Math::max);
+            }
+        }
+
+        private Double metric(String path) {
+            try {
+                HttpResponse<String> response = client.send(HttpRequest.newBuilder(actuator.resolve(path)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    return null;
+                }
+                JsonNode measurements = objectMapper.readTree(response.body()).get("measurements");
+                return measurements.get(0).get("value").asDouble();
+            } catch (IOException ex) {
+                return null;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        private Double rss() {
+            try {
+                for (String line : Files.readAllLines(Path.of("/proc", pid.toString(), "status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Double.parseDouble(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException ex) {
+                // Not Linux, or the process is gone.
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package learn.petgallery;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import learn.petgallery.domain.FileService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Caches are Caffeine-backed and sized by spring.cache.caffeine.spec. With recordStats on, the actuator
+// publishes cache.gets (hit/miss), cache.puts and cache.evictions for each cache.
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    // The upload index maps content hashes to stored URLs. Those never go stale, so unlike the pet cache
+    // it is bounded by size only.
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> uploadIndexCustomizer(
+            @Value("${upload.index.max.size}") long maxSize) {
+        return cacheManager -> cacheManager.registerCustomCache(FileService.UPLOAD_INDEX,
+                Caffeine.newBuilder().maximumSize(maxSize).recordStats().build());
+    }
+}
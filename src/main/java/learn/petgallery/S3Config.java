@@ -0,0 +1,153 @@
+package learn.petgallery;
+
+import learn.petgallery.data.ByteBufferPool;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+@ConditionalOnProperty(name = "file.store", havingValue = "s3", matchIfMissing = true)
+public class S3Config {
+
+    private final String accessKeyId;
+    private final String secretAccessKey;
+    private final Region bucketRegion;
+    private final String endpoint;
+
+    public S3Config(
+            @Value("${aws.access.key.id}") String accessKeyId,
+            @Value("${aws.secret.access.key}") String secretAccessKey,
+            @Value("${aws.s3.bucket.region}") String bucketRegion,
+            @Value("${aws.s3.endpoint}") String endpoint) {
+        this.accessKeyId = accessKeyId;
+        this.secretAccessKey = secretAccessKey;
+        this.bucketRegion = Region.of(bucketRegion);
+        this.endpoint = endpoint;
+    }
+
+    // The HTTP client owns the connection pool, so it lives as long as the context and is closed with it.
+    @Bean(destroyMethod = "close")
+    public SdkHttpClient s3HttpClient(
+            @Value("${aws.s3.http.max.connections}") int maxConnections,
+            @Value("${aws.s3.http.connection.max.idle.seconds}") long maxIdleSeconds,
+            @Value("${aws.s3.http.connection.ttl.seconds}") long ttlSeconds) {
+        return ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionMaxIdleTime(Duration.ofSeconds(maxIdleSeconds))
+                .connectionTimeToLive(Duration.ofSeconds(ttlSeconds))
+                .useIdleConnectionReaper(true)
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public S3Client s3Client(SdkHttpClient s3HttpClient) {
+        S3ClientBuilder builder = S3Client.builder()
+                .region(bucketRegion)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(s3HttpClient);
+
+        // Point the client at a local S3 stand-in (MinIO, LocalStack, ...) when an endpoint is configured.
+        if (hasEndpoint()) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(pathStyleAccess());
+        }
+
+        return builder.build();
+    }
+
+    // Requests beyond max connections wait for a connection without holding a thread; past the pending
+    // limit they fail fast instead of queueing without bound.
+    @Bean(destroyMethod = "close")
+    public SdkAsyncHttpClient s3AsyncHttpClient(
+            @Value("${aws.s3.http.max.connections}") int maxConnections,
+            @Value("${aws.s3.async.max.pending.connection.acquires}") int maxPendingAcquires,
+            @Value("${aws.s3.http.connection.max.idle.seconds}") long maxIdleSeconds,
+            @Value("${aws.s3.http.connection.ttl.seconds}") long ttlSeconds) {
+        return NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(maxConnections)
+                .maxPendingConnectionAcquires(maxPendingAcquires)
+                .connectionMaxIdleTime(Duration.ofSeconds(maxIdleSeconds))
+                .connectionTimeToLive(Duration.ofSeconds(ttlSeconds))
+                .build();
+    }
+
+    // The async client splits bodies above the same threshold as the blocking path into parts itself.
+    @Bean(destroyMethod = "close")
+    public S3AsyncClient s3AsyncClient(
+            SdkAsyncHttpClient s3AsyncHttpClient,
+            @Value("${aws.s3.multipart.threshold.bytes}") long thresholdBytes) {
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .region(bucketRegion)
+                .credentialsProvider(credentialsProvider())
+                .httpClient(s3AsyncHttpClient)
+                .multipartEnabled(true)
+                .multipartConfiguration(multipart -> multipart
+                        .thresholdInBytes(thresholdBytes)
+                        .minimumPartSizeInBytes(thresholdBytes));
+
+        if (hasEndpoint()) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(pathStyleAccess());
+        }
+
+        return builder.build();
+    }
+
+    // Objects larger than one buffer are uploaded in parts of this size, so it is also the multipart threshold.
+    // S3 rejects parts smaller than 5 MB (except the last one).
+    @Bean
+    public ByteBufferPool s3PartBufferPool(
+            @Value("${aws.s3.multipart.buffer.count}") int bufferCount,
+            @Value("${aws.s3.multipart.threshold.bytes}") int thresholdBytes) {
+        return new ByteBufferPool(bufferCount, thresholdBytes);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ExecutorService s3PartUploadExecutor(@Value("${aws.s3.multipart.upload.threads}") int threads) {
+        return Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("s3-part-"));
+    }
+
+    // Part uploads only wait on the network, so with virtual threads on each gets its own. The buffer pool
+    // and the per-stream parts-in-flight limit still bound how many run at once.
+    @Bean(name = "s3PartUploadExecutor", destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public ExecutorService virtualS3PartUploadExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("s3-part-", 0).factory());
+    }
+
+    private StaticCredentialsProvider credentialsProvider() {
+        return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKeyId, secretAccessKey));
+    }
+
+    private boolean hasEndpoint() {
+        return endpoint != null && !endpoint.isBlank();
+    }
+
+    private S3Configuration pathStyleAccess() {
+        return S3Configuration.builder()
+                .pathStyleAccessEnabled(true)
+                .build();
+    }
+}
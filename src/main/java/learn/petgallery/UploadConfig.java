@@ -0,0 +1,62 @@
+package learn.petgallery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.controllers.UploadRateLimitInterceptor;
+import learn.petgallery.domain.UploadRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@EnableScheduling
+public class UploadConfig {
+
+    // A bounded queue with the abort policy is the backpressure: when it is full, new jobs are rejected
+    // instead of piling up in memory.
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService uploadJobExecutor(
+            @Value("${upload.job.workers}") int workers,
+            @Value("${upload.job.queue.capacity}") int queueCapacity) {
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new CustomizableThreadFactory("upload-job-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Encodes and stores the variants of an upload in parallel. Kept apart from the job pool so a job
+    // waiting on its variants can never starve them of threads.
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService imageEncodeExecutor(@Value("${image.encode.threads}") int threads) {
+        return Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                new CustomizableThreadFactory("image-encode-"));
+    }
+
+    // Only requests that start an upload spend a token: not chunks, not completing a session, not polling.
+    @Bean
+    public WebMvcConfigurer uploadRateLimitConfigurer(UploadRateLimiter limiter, ObjectMapper objectMapper,
+                                                      @Value("${upload.rate.api.keys}") String apiKeys) {
+        Set<String> keys = apiKeys == null || apiKeys.isBlank()
+                ? Set.of()
+                : Set.copyOf(Arrays.asList(apiKeys.split("\\s*,\\s*")));
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new UploadRateLimitInterceptor(limiter, keys, objectMapper))
+                        .addPathPatterns("/api/file", "/api/file/async", "/api/file/session");
+            }
+        };
+    }
+}
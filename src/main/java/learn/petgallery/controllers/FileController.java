@@ -2,30 +2,150 @@ package learn.petgallery.controllers;
 
 import learn.petgallery.domain.FileService;
 import learn.petgallery.domain.Result;
+import learn.petgallery.domain.ResultType;
+import learn.petgallery.domain.UploadJobService;
+import learn.petgallery.domain.UploadSessionService;
+import learn.petgallery.models.UploadJob;
+import learn.petgallery.models.UploadSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequestMapping("/api/file")
 public class FileController {
 
     private final FileService service;
+    private final UploadJobService jobService;
+    private final UploadSessionService sessionService;
+    private final long retryAfterSeconds;
 
-    public FileController(FileService service) {
+    public FileController(FileService service, UploadJobService jobService, UploadSessionService sessionService,
+                          @Value("${upload.busy.retry.after.seconds}") long retryAfterSeconds) {
         this.service = service;
+        this.jobService = jobService;
+        this.sessionService = sessionService;
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
+    // The request thread is released as soon as the upload is started; the response is written when it finishes.
     @PostMapping
-    public ResponseEntity<Object> upload(@RequestParam("file") MultipartFile file) {
-        Result<String> result = service.uploadFile(file);
+    public CompletableFuture<ResponseEntity<Object>> upload(@RequestParam("file") MultipartFile file) {
+        return service.uploadFileAsync(file).thenApply(result -> {
+            if (result.isSuccess()) {
+                return new ResponseEntity<>(result.getPayload(), HttpStatus.CREATED);
+            }
+            return buildErrorResponse(result);
+        });
+    }
+
+    @PostMapping("/async")
+    public ResponseEntity<Object> uploadAsync(@RequestParam("file") MultipartFile file) {
+        Result<UploadJob> result = jobService.submit(file);
+        if (result.isSuccess()) {
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/file/job/" + result.getPayload().getJobId()))
+                    .body(result.getPayload());
+        }
+        return buildErrorResponse(result);
+    }
+
+    @GetMapping("/job/{jobId}")
+    public ResponseEntity<Object> findJob(@PathVariable String jobId) {
+        UploadJob job = jobService.findById(jobId);
+        if (job != null) {
+            return new ResponseEntity<>(job, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+
+    // Resumable upload: open a session, PUT the bytes as raw chunks at any offsets, GET the session to see which
+    // ranges arrived, then complete it. Completing answers like POST /api/file.
+    @PostMapping("/session")
+    public ResponseEntity<Object> openSession(@RequestParam String filename,
+                                              @RequestParam String contentType,
+                                              @RequestParam long size) {
+        Result<UploadSession> result = sessionService.open(filename, contentType, size);
+        if (result.isSuccess()) {
+            return ResponseEntity.created(URI.create("/api/file/session/" + result.getPayload().getSessionId()))
+                    .body(result.getPayload());
+        }
+        return buildErrorResponse(result);
+    }
+
+    @GetMapping("/session/{sessionId}")
+    public ResponseEntity<Object> findSession(@PathVariable String sessionId) {
+        UploadSession session = sessionService.findById(sessionId);
+        if (session != null) {
+            return new ResponseEntity<>(session, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+
+    @PutMapping("/session/{sessionId}")
+    public ResponseEntity<Object> writeChunk(@PathVariable String sessionId,
+                                             @RequestParam long offset,
+                                             InputStream body) {
+        Result<UploadSession> result = sessionService.write(sessionId, offset, body);
+        if (result.isSuccess()) {
+            return new ResponseEntity<>(result.getPayload(), HttpStatus.OK);
+        }
+        return buildErrorResponse(result);
+    }
+
+    @PostMapping("/session/{sessionId}/complete")
+    public CompletableFuture<ResponseEntity<Object>> completeSession(@PathVariable String sessionId) {
+        return sessionService.complete(sessionId).thenApply(result -> {
+            if (result.isSuccess()) {
+                return new ResponseEntity<>(result.getPayload(), HttpStatus.CREATED);
+            }
+            return buildErrorResponse(result);
+        });
+    }
+
+    @DeleteMapping("/session/{sessionId}")
+    public ResponseEntity<Object> abortSession(@PathVariable String sessionId) {
+        Result<Void> result = sessionService.abort(sessionId);
         if (result.isSuccess()) {
-            return new ResponseEntity<>(result.getPayload(), HttpStatus.CREATED);
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
-        return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
+        return buildErrorResponse(result);
+    }
+
+    // A busy server says when to come back; the rate limiter's 429 says the same in its own terms.
+    private ResponseEntity<Object> buildErrorResponse(Result<?> result) {
+        HttpStatus status = getStatus(result.getResultType());
+        if (result.getResultType() == ResultType.BUSY) {
+            return ResponseEntity.status(status)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(result.getMessages());
+        }
+        return new ResponseEntity<>(result.getMessages(), status);
+    }
+
+    private HttpStatus getStatus(ResultType resultType) {
+        return switch (resultType) {
+            case NOT_FOUND -> HttpStatus.NOT_FOUND;
+            case CONFLICT -> HttpStatus.CONFLICT;
+            case BUSY -> HttpStatus.TOO_MANY_REQUESTS;
+            case TOO_LARGE -> HttpStatus.PAYLOAD_TOO_LARGE;
+            case UNSUPPORTED -> HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+            default -> HttpStatus.BAD_REQUEST;
+        };
     }
 }
@@ -1,13 +1,29 @@
 package learn.petgallery.controllers;
 
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+// The load balancer's health check. It reports the aggregated actuator health (database and S3) as 200 or 503;
+// component details stay behind /actuator/health.
 @RestController
 public class HealthCheckController {
 
+    private final HealthEndpoint healthEndpoint;
+
+    public HealthCheckController(HealthEndpoint healthEndpoint) {
+        this.healthEndpoint = healthEndpoint;
+    }
+
     @GetMapping
-    public String healthCheck() {
-        return "Healthy";
+    public ResponseEntity<Status> healthCheck() {
+        Status status = healthEndpoint.health().getStatus();
+        if (Status.UP.equals(status)) {
+            return new ResponseEntity<>(status, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(status, HttpStatus.SERVICE_UNAVAILABLE);
     }
 }
@@ -0,0 +1,155 @@
+package learn.petgallery.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import learn.petgallery.data.LocalDiskFileRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Serves what LocalDiskFileRepository stored. Written against the servlet response rather than a
+// ResponseEntity so the body can go out as a file transfer instead of being copied through the heap.
+@RestController
+@RequestMapping("/api/file")
+@ConditionalOnProperty(name = "file.store", havingValue = "local")
+public class LocalFileController {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Keys include the content hash, so a stored file never changes.
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final LocalDiskFileRepository repository;
+
+    public LocalFileController(LocalDiskFileRepository repository) {
+        this.repository = repository;
+    }
+
+    @GetMapping("/{variant}/{name}")
+    public void serve(@PathVariable String variant, @PathVariable String name,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = repository.resolve(variant, name);
+        if (path == null || !Files.isRegularFile(path)) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        long length = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        String etag = String.format("\"%x-%x\"", length, lastModified);
+        // Answers If-None-Match / If-Modified-Since with 304 and If-Match / If-Unmodified-Since with 412.
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(MediaTypeFactory.getMediaType(name)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        long start = 0;
+        long count = length;
+        HttpRange range = singleRange(request, etag, lastModified);
+        if (range != null) {
+            if (length == 0 || !satisfiable(range, length)) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            start = range.getRangeStart(length);
+            count = range.getRangeEnd(length) - start + 1;
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    String.format("bytes %d-%d/%d", start, start + count - 1, length));
+        }
+
+        response.setContentLengthLong(count);
+        if (count > 0 && !HttpMethod.HEAD.matches(request.getMethod())) {
+            send(request, response, path, start, count);
+        }
+    }
+
+    // Only a single range is honored; multiple ranges, a malformed header or a stale If-Range get the whole file,
+    // which is what the spec allows a server to do.
+    private HttpRange singleRange(HttpServletRequest request, String etag, long lastModified) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !ifRangeMatches(request, etag, lastModified)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            // HTTP dates have one second resolution.
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private boolean satisfiable(HttpRange range, long length) {
+        try {
+            return range.getRangeStart(length) < length && range.getRangeEnd(length) >= range.getRangeStart(length);
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    // Tomcat's NIO connector hands the file to the kernel (sendfile) once the headers are written; elsewhere the
+    // channel transfer still avoids staging the file in a heap buffer.
+    private void send(HttpServletRequest request, HttpServletResponse response, Path path, long start, long count)
+            throws IOException {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long end = start + count;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+            }
+        }
+    }
+}
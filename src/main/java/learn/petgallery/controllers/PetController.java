@@ -1,15 +1,28 @@
 package learn.petgallery.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import learn.petgallery.domain.PetService;
 import learn.petgallery.domain.Result;
 import learn.petgallery.domain.ResultType;
 import learn.petgallery.models.Pet;
+import learn.petgallery.models.PetListVersion;
+import learn.petgallery.models.PetPage;
+import learn.petgallery.models.PetSearchPage;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import javax.validation.Valid;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -17,24 +30,99 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/pet")
 public class PetController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final PetService petService;
+    private final ObjectMapper objectMapper;
 
-    public PetController(PetService petService) {
+    public PetController(PetService petService, ObjectMapper objectMapper) {
         this.petService = petService;
+        this.objectMapper = objectMapper;
     }
 
+    // Without paging parameters this still returns the whole table as a plain array for existing clients.
+    // The ETag comes from one aggregate query, so a 304 never reads or serializes the pets themselves.
+    // There is no Last-Modified: a delete doesn't move the newest timestamp.
     @GetMapping
-    public List<Pet> findAll() {
-        return petService.findAll();
+    public ResponseEntity<Object> findAll(@RequestParam(required = false) Integer limit,
+                                          @RequestParam(required = false) Integer after,
+                                          WebRequest request) {
+        if (request.checkNotModified(buildETag(petService.findListVersion()))) {
+            return null;
+        }
+        if (limit == null && after == null) {
+            return new ResponseEntity<>(petService.findAll(), HttpStatus.OK);
+        }
+        Result<PetPage> result = petService.findPage(after, limit);
+        if (result.isSuccess()) {
+            return new ResponseEntity<>(result.getPayload(), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
+    }
+
+    // Every pet, as one JSON object per line (format=ndjson, the default) or as one JSON array. Pets are
+    // written as the cursor reaches them, so memory stays flat however large the table is. Written against
+    // the servlet response because an export can outlast the async request timeout. A failure part way
+    // leaves a truncated body; for an array that is also invalid JSON.
+    @GetMapping("/export")
+    public ResponseEntity<Object> export(@RequestParam(defaultValue = "ndjson") String format,
+                                         HttpServletResponse response) throws IOException {
+        boolean array = format.equals("json");
+        if (!array && !format.equals("ndjson")) {
+            return new ResponseEntity<>(List.of("Format must be 'ndjson' or 'json'."), HttpStatus.BAD_REQUEST);
+        }
+        response.setContentType((array ? MediaType.APPLICATION_JSON : NDJSON).toString());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            if (array) {
+                generator.writeStartArray();
+            }
+            petService.forEachPet(pet -> {
+                try {
+                    generator.writeObject(pet);
+                    // The first pet goes out at once; after that the buffers decide.
+                    if (generator.getOutputContext().getEntryCount() == 1) {
+                        generator.flush();
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            if (array) {
+                generator.writeEndArray();
+            } else {
+                generator.writeRaw('\n');
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return null;
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<Object> search(@RequestParam(required = false) String q,
+                                         @RequestParam(required = false) Integer offset,
+                                         @RequestParam(required = false) Integer limit) {
+        Result<PetSearchPage> result = petService.search(q, offset, limit);
+        if (result.isSuccess()) {
+            return new ResponseEntity<>(result.getPayload(), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Object> findById(@PathVariable int id) {
+    public ResponseEntity<Object> findById(@PathVariable int id, WebRequest request) {
         Pet pet = petService.findById(id);
-        if (pet != null) {
-            return new ResponseEntity<>(pet, HttpStatus.OK);
+        if (pet == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        long lastModified = pet.getUpdatedAt() == null ? -1 : pet.getUpdatedAt().toEpochMilli();
+        if (request.checkNotModified(buildETag(pet), lastModified)) {
+            return null;
         }
-        return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        return new ResponseEntity<>(pet, HttpStatus.OK);
     }
 
     @PostMapping
@@ -49,21 +137,36 @@ public class PetController {
         return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
     }
 
+    // With If-Match the update only applies while the pet is still at that ETag; otherwise 412.
     @PutMapping("/{id}")
     public ResponseEntity<Object> update(@PathVariable int id,
                                          @RequestBody @Valid Pet pet,
-                                         BindingResult bindingResult) {
+                                         BindingResult bindingResult,
+                                         @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         if (bindingResult.hasErrors()) {
             return buildInvalidResponse(bindingResult);
         }
         if (id != pet.getPetId()) {
             return new ResponseEntity<>(HttpStatus.CONFLICT);
         }
-        Result<Void> result = petService.update(pet);
+
+        Result<Void> result;
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            result = petService.update(pet);
+        } else {
+            Long version = parseVersion(ifMatch);
+            if (version == null) {
+                return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+            }
+            result = petService.update(pet, version);
+        }
+
         if (result.isSuccess()) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         } else if (result.getResultType() == ResultType.NOT_FOUND) {
             return new ResponseEntity<>(result.getMessages(), HttpStatus.NOT_FOUND);
+        } else if (result.getResultType() == ResultType.PRECONDITION_FAILED) {
+            return new ResponseEntity<>(result.getMessages(), HttpStatus.PRECONDITION_FAILED);
         }
         return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
     }
@@ -77,6 +180,52 @@ public class PetController {
         return new ResponseEntity<>(result.getMessages(), HttpStatus.NOT_FOUND);
     }
 
+    @PostMapping("/batch")
+    public ResponseEntity<Object> addAll(@RequestBody List<Pet> pets) {
+        return buildBatchResponse(petService.addAll(pets));
+    }
+
+    @PutMapping("/batch")
+    public ResponseEntity<Object> updateAll(@RequestBody List<Pet> pets) {
+        return buildBatchResponse(petService.updateAll(pets));
+    }
+
+    @DeleteMapping("/batch")
+    public ResponseEntity<Object> deleteAllById(@RequestBody List<Integer> petIds) {
+        return buildBatchResponse(petService.deleteAllById(petIds));
+    }
+
+    private <T> ResponseEntity<Object> buildBatchResponse(Result<List<Result<T>>> result) {
+        if (result.isSuccess()) {
+            return new ResponseEntity<>(result.getPayload(), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(result.getMessages(), HttpStatus.BAD_REQUEST);
+    }
+
+    private String buildETag(Pet pet) {
+        return "\"" + pet.getVersion() + "\"";
+    }
+
+    // Weak, because Tomcat won't compress a response with a strong ETag. If-None-Match compares weakly anyway.
+    private String buildETag(PetListVersion listVersion) {
+        long lastUpdated = listVersion.getLastUpdatedAt() == null ? 0 : listVersion.getLastUpdatedAt().toEpochMilli();
+        return String.format("W/\"%s-%s-%s-%s\"",listVersion.getCount(), listVersion.getMaxPetId(),
+                listVersion.getVersionSum(), lastUpdated);
+    }
+
+    // If-Match compares strongly, so only a single strong ETag as issued by findById can match.
+    private Long parseVersion(String ifMatch) {
+        String eTag = ifMatch.trim();
+        if (eTag.length() < 3 || !eTag.startsWith("\"") || !eTag.endsWith("\"")) {
+            return null;
+        }
+        try {
+            return Long.parseLong(eTag.substring(1, eTag.length() - 1));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
     private ResponseEntity<Object> buildInvalidResponse(BindingResult bindingResult) {
         return new ResponseEntity<>(bindingResult.getAllErrors().stream()
                 .map(i -> i.getDefaultMessage())
@@ -0,0 +1,65 @@
+package learn.petgallery.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.domain.UploadRateLimiter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Turns away clients that start uploads too often before their body is parsed, let alone decoded; multipart
+// requests are resolved lazily for that. A client is its API key when it sends a known one, otherwise its
+// address, which behind a proxy depends on server.forward-headers-strategy. Unknown keys count as the
+// address, so making keys up buys no extra uploads.
+public class UploadRateLimitInterceptor implements HandlerInterceptor {
+
+    public static final String API_KEY_HEADER = "X-Api-Key";
+
+    private final UploadRateLimiter limiter;
+    private final Set<String> apiKeys;
+    private final ObjectMapper objectMapper;
+
+    public UploadRateLimitInterceptor(UploadRateLimiter limiter, Set<String> apiKeys, ObjectMapper objectMapper) {
+        this.limiter = limiter;
+        this.apiKeys = apiKeys;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        // An upload's result comes back through an async dispatch, which passes here a second time.
+        if (request.getDispatcherType() != DispatcherType.REQUEST || !HttpMethod.POST.matches(request.getMethod())) {
+            return true;
+        }
+        long wait = limiter.tryAcquire(client(request));
+        if (wait == 0) {
+            return true;
+        }
+
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                List.of(String.format("Too many uploads. Try again in %d seconds.", seconds)));
+        return false;
+    }
+
+    private String client(HttpServletRequest request) {
+        String apiKey = request.getHeader(API_KEY_HEADER);
+        if (apiKey != null && apiKeys.contains(apiKey)) {
+            return "key:" + apiKey;
+        }
+        return "address:" + request.getRemoteAddr();
+    }
+}
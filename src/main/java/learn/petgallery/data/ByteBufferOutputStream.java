@@ -0,0 +1,16 @@
+package learn.petgallery.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+// Hands out what was written as a ByteBuffer over the internal array, without the copy toByteArray makes.
+class ByteBufferOutputStream extends ByteArrayOutputStream {
+
+    ByteBufferOutputStream(int size) {
+        super(size);
+    }
+
+    synchronized ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+}
@@ -0,0 +1,38 @@
+package learn.petgallery.data;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final Semaphore available;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    public ByteBufferPool(int bufferCount, int bufferSize) {
+        if (bufferCount < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer count and size must be positive.");
+        }
+        this.bufferSize = bufferSize;
+        this.available = new Semaphore(bufferCount, true);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Blocks until a buffer is free. Buffers are allocated off-heap on first use and reused after that.
+    public ByteBuffer acquire() throws InterruptedException {
+        available.acquire();
+        ByteBuffer buffer = free.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(bufferSize) : buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+        available.release();
+    }
+}
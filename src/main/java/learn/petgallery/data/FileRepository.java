@@ -1,8 +1,15 @@
 package learn.petgallery.data;
 
 import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.StoredImage;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface FileRepository {
-    String upload(MultipartFile file) throws FileUploadException;
+    // Stores the file under name and returns each variant's URL, keyed by variant name, with the image's placeholder.
+    StoredImage upload(MultipartFile file, String name) throws FileUploadException;
+
+    // Same result as upload without blocking the caller; failures complete the future with a FileUploadException.
+    CompletableFuture<StoredImage> uploadAsync(MultipartFile file, String name);
 }
@@ -0,0 +1,66 @@
+package learn.petgallery.data;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Iterator;
+
+// Decodes uploads, skipping pixels the first resize would throw away. The reader subsamples rows and columns
+// while decoding, so a 6000px photo headed for 1200px never has its full raster on the heap. Subsampling only
+// picks pixels, it does not average them, so the decode stops at headroom times the target width and Scalr
+// makes the final, filtered step.
+@Component
+public class ImageDecoder {
+
+    private final int headroom;
+
+    // A headroom of 0 turns subsampling off.
+    public ImageDecoder(@Value("${image.decode.headroom}") int headroom) {
+        if (headroom < 0) {
+            throw new IllegalArgumentException("Decode headroom must not be negative.");
+        }
+        this.headroom = headroom;
+    }
+
+    // Decodes at full size when the target width is 0 or subsampling would not save anything.
+    BufferedImage decode(MultipartFile file, int targetWidth) throws IOException {
+        try (InputStream inputStream = file.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = imageInputStream == null
+                    ? Collections.emptyIterator()
+                    : ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                throw new IOException(String.format("'%s' could not be decoded.", file.getOriginalFilename()));
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int factor = subsampling(reader.getWidth(0), targetWidth);
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // The largest factor that still leaves at least headroom times the target width.
+    int subsampling(int width, int targetWidth) {
+        if (headroom == 0 || targetWidth <= 0) {
+            return 1;
+        }
+        return Math.max(1, width / (targetWidth * headroom));
+    }
+}
@@ -0,0 +1,122 @@
+package learn.petgallery.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+// Decides what each variant is stored as and writes it. JPEG quality and progressive mode are explicit
+// instead of ImageIO's defaults, PNGs without alpha can be stored as JPEG, and stored originals can be
+// stripped of metadata without re-encoding.
+@Component
+public class ImageEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageEncoder.class);
+
+    static final ImageFormat JPEG = new ImageFormat("jpg", "image/jpeg");
+    static final ImageFormat WEBP = new ImageFormat("webp", "image/webp");
+
+    private final float jpegQuality;
+    private final boolean jpegProgressive;
+    private final boolean pngToJpeg;
+    private final boolean stripMetadata;
+    private final boolean webp;
+
+    public ImageEncoder(
+            @Value("${image.jpeg.quality}") float jpegQuality,
+            @Value("${image.jpeg.progressive}") boolean jpegProgressive,
+            @Value("${image.png.to.jpeg}") boolean pngToJpeg,
+            @Value("${image.strip.metadata}") boolean stripMetadata,
+            @Value("${image.webp.enabled}") boolean webpEnabled) {
+        if (jpegQuality <= 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("JPEG quality must be greater than 0 and at most 1.");
+        }
+        this.jpegQuality = jpegQuality;
+        this.jpegProgressive = jpegProgressive;
+        this.pngToJpeg = pngToJpeg;
+        this.stripMetadata = stripMetadata;
+        // The JDK has no WebP writer, so WebP copies need an ImageIO plugin that provides one.
+        this.webp = webpEnabled && ImageIO.getImageWritersByFormatName(WEBP.extension()).hasNext();
+        if (webpEnabled && !webp) {
+            logger.warn("WebP variants are enabled but no WebP image writer is installed; storing none.");
+        }
+    }
+
+    // The format an upload's variants are stored in: its own, unless it is a PNG without alpha and
+    // PNG-to-JPEG is on. Photos saved as PNG are usually several times larger than the same JPEG.
+    ImageFormat target(ImageFormat source, boolean alpha) {
+        if (pngToJpeg && !alpha && source.extension().equals("png")) {
+            return JPEG;
+        }
+        return source;
+    }
+
+    // Every format a variant is stored in, the target first.
+    List<ImageFormat> formats(ImageFormat target) {
+        return webp && !target.equals(WEBP) ? List.of(target, WEBP) : List.of(target);
+    }
+
+    void encode(BufferedImage image, ImageFormat format, OutputStream outputStream) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format.extension());
+        if (!writers.hasNext()) {
+            throw new IOException(String.format("No image writer for '%s'.", format.extension()));
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (format.isJpeg()) {
+            image = withoutAlpha(image);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            param.setProgressiveMode(jpegProgressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+        // ImageIO.write caches through a temporary file by default; an in-memory cache avoids the disk round trip.
+        // No metadata is passed, so the writer emits only what the format requires.
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // Copies an original that is stored as uploaded.
+    void copy(InputStream inputStream, ImageFormat format, OutputStream outputStream) throws IOException {
+        if (stripMetadata) {
+            MetadataStripper.copy(inputStream, format, outputStream);
+        } else {
+            inputStream.transferTo(outputStream);
+        }
+    }
+
+    // JPEG has no alpha channel and the JDK writer refuses indexed images, so both are flattened onto white.
+    private static BufferedImage withoutAlpha(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_3BYTE_BGR
+                || type == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+}
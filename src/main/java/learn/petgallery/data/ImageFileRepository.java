@@ -0,0 +1,424 @@
+package learn.petgallery.data;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.ImagePlaceholder;
+import learn.petgallery.models.StoredImage;
+import org.imgscalr.Scalr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * The upload pipeline shared by every store: probe the header, decode once (subsampled towards the first
+ * resize target), resize each variant from the previous one, encode, and hand the result to the store.
+ * Subclasses only decide where bytes go.
+ */
+abstract class ImageFileRepository implements FileRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageFileRepository.class);
+
+    // Target width when an upload is decoded for its placeholder alone.
+    private static final int PLACEHOLDER_DECODE_WIDTH = 64;
+
+    private final ImageVariants variants;
+    private final ImageEncoder encoder;
+    private final ImageDecoder decoder;
+    private final ImagePlaceholderEncoder placeholderEncoder;
+    private final Executor imageEncodeExecutor;
+    private final MeterRegistry meterRegistry;
+    private final String store;
+
+    ImageFileRepository(ImageVariants variants, ImageEncoder encoder, ImageDecoder decoder,
+                        ImagePlaceholderEncoder placeholderEncoder, Executor imageEncodeExecutor,
+                        MeterRegistry meterRegistry, String store) {
+        this.variants = variants;
+        this.encoder = encoder;
+        this.decoder = decoder;
+        this.placeholderEncoder = placeholderEncoder;
+        this.imageEncodeExecutor = imageEncodeExecutor;
+        this.meterRegistry = meterRegistry;
+        this.store = store;
+    }
+
+    // Stores a copy of the upload as it is, for variants at least as wide as the upload.
+    abstract CompletableFuture<String> storeOriginal(Upload upload, String key, String variant, boolean blocking);
+
+    abstract CompletableFuture<String> storeEncoded(Upload upload, BufferedImage image, String key,
+                                                    ImageFormat format, String variant, boolean blocking);
+
+    // Store-specific runtime failures that mean "not uploaded" rather than a bug.
+    boolean isStoreFailure(Throwable ex) {
+        return false;
+    }
+
+    // Besides the overall image.upload timer, every stage records an image.upload.stage timer:
+    // probe (header read), decode, resize, encode, store and placeholder. Stores that encode straight into their output
+    // count any wait on that output as "encode"; "store" is what is left once encoding is done.
+    @Override
+    public StoredImage upload(MultipartFile file, String name) throws FileUploadException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        String exception = "none";
+        try {
+            Upload upload = probe(file, name);
+            StoredImage stored = await(upload, startVariants(upload, true));
+            report(upload);
+            outcome = "success";
+            return stored;
+        } catch (IOException ex) {
+            exception = exceptionTag(ex);
+            throw new FileUploadException(ex.getMessage(), ex);
+        } catch (RuntimeException ex) {
+            exception = exceptionTag(ex);
+            if (isStoreFailure(ex)) {
+                throw new FileUploadException(ex.getMessage(), ex);
+            }
+            throw ex;
+        } finally {
+            sample.stop(uploadTimer(outcome, exception));
+        }
+    }
+
+    // The same pipeline without blocking: probe, decode, resize and encode are queued on the bounded encode pool,
+    // so the caller never waits and, with a non-blocking store, neither does any thread.
+    @Override
+    public CompletableFuture<StoredImage> uploadAsync(MultipartFile file, String name) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Upload upload = probe(file, name);
+                        return Map.entry(upload, startVariants(upload, false));
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, imageEncodeExecutor)
+                .thenCompose(started -> allOf(started.getKey(), started.getValue())
+                        .thenApply(done -> {
+                            report(started.getKey());
+                            return collect(started.getKey(), started.getValue());
+                        }))
+                .handle((stored, ex) -> {
+                    Throwable cause = unwrap(ex);
+                    sample.stop(uploadTimer(cause == null ? "success" : "failure",
+                            cause == null ? "none" : exceptionTag(cause)));
+                    if (cause == null) {
+                        return stored;
+                    } else if (cause instanceof IOException || isStoreFailure(cause)) {
+                        throw new CompletionException(new FileUploadException(cause.getMessage(), cause));
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    private Upload probe(MultipartFile file, String name) throws IOException {
+        bytesInSummary().record(file.getSize());
+        Timer.Sample probe = Timer.start(meterRegistry);
+        Upload upload = readHeader(file, name);
+        probe.stop(stageTimer("probe"));
+        return upload;
+    }
+
+    // Variants are produced widest first, each resized from the previous one rather than from the original,
+    // so the expensive work on the full raster happens once. Encoding and storing run in parallel with the
+    // next resize.
+    private Map<String, CompletableFuture<String>> startVariants(Upload upload, boolean blocking) throws IOException {
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        // Variants at least as wide as the upload share one stored copy per format.
+        Map<ImageFormat, CompletableFuture<String>> fullSize = new HashMap<>();
+        BufferedImage image = null;
+
+        for (Map.Entry<String, Integer> variant : variants.widestFirst()) {
+            boolean fits = upload.width <= variant.getValue();
+            if (!fits || upload.needsPixels()) {
+                if (image == null) {
+                    // Only the first resize target lets the decoder skip pixels; a variant that fits needs them all.
+                    Timer.Sample decode = Timer.start(meterRegistry);
+                    image = decoder.decode(upload.file, fits ? 0 : variant.getValue());
+                    decode.stop(stageTimer("decode"));
+                    decodeSubsamplingSummary().record((double) upload.width / image.getWidth());
+                }
+            }
+            if (!fits) {
+                Timer.Sample resize = Timer.start(meterRegistry);
+                int sourceWidth = image.getWidth();
+                image = resizeImage(image, variant.getValue());
+                resize.stop(stageTimer("resize"));
+                resizeRatioSummary().record((double) sourceWidth / image.getWidth());
+            }
+
+            for (ImageFormat format : upload.formats) {
+                String variantName = upload.variantName(variant.getKey(), format);
+                String key = upload.key(variant.getKey(), format);
+                BufferedImage variantImage = image;
+                if (fits) {
+                    // Stored as uploaded when nothing changes: no decode, no re-encode, no pixel buffer on the heap.
+                    pending.put(variantName, fullSize.computeIfAbsent(format, ignored -> format == upload.source
+                            ? storeOriginal(upload, key, variantName, blocking)
+                            : storeEncoded(upload, variantImage, key, format, variantName, blocking)));
+                } else {
+                    pending.put(variantName, storeEncoded(upload, variantImage, key, format, variantName, blocking));
+                }
+            }
+        }
+        upload.placeholder = startPlaceholder(upload, image);
+        return pending;
+    }
+
+    // From the narrowest variant's pixels, or from a heavily subsampled decode when nothing else needed one.
+    // Runs alongside the stores; without a placeholder the upload still succeeds.
+    private CompletableFuture<ImagePlaceholder> startPlaceholder(Upload upload, BufferedImage narrowest) {
+        return CompletableFuture.supplyAsync(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            try {
+                BufferedImage image = narrowest != null
+                        ? narrowest
+                        : decoder.decode(upload.file, PLACEHOLDER_DECODE_WIDTH);
+                return placeholderEncoder.encode(image);
+            } catch (IOException | RuntimeException ex) {
+                logger.warn("No placeholder for '{}'.", upload.name, ex);
+                return null;
+            } finally {
+                sample.stop(stageTimer("placeholder"));
+            }
+        }, imageEncodeExecutor);
+    }
+
+    private CompletableFuture<Void> allOf(Upload upload, Map<String, CompletableFuture<String>> pending) {
+        CompletableFuture<?>[] all = pending.values().toArray(new CompletableFuture[pending.size() + 1]);
+        all[pending.size()] = upload.placeholder;
+        return CompletableFuture.allOf(all);
+    }
+
+    private StoredImage await(Upload upload, Map<String, CompletableFuture<String>> pending)
+            throws IOException {
+        try {
+            allOf(upload, pending).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            } else if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return collect(upload, pending);
+    }
+
+    // Configured variant order, each followed by its copies in other formats.
+    private StoredImage collect(Upload upload, Map<String, CompletableFuture<String>> pending) {
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (String name : variants.names()) {
+            for (ImageFormat format : upload.formats) {
+                String variantName = upload.variantName(name, format);
+                urls.put(variantName, pending.get(variantName).join());
+            }
+        }
+        return new StoredImage(urls, upload.placeholder.join());
+    }
+
+    // Stores report their failures as IOExceptions; tag them with the underlying cause where there is one.
+    private static String exceptionTag(Throwable ex) {
+        return (ex instanceof IOException && ex.getCause() instanceof RuntimeException ? ex.getCause() : ex)
+                .getClass().getSimpleName();
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while (ex instanceof CompletionException || ex instanceof UncheckedIOException) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    ImageEncoder encoder() {
+        return encoder;
+    }
+
+    Executor imageEncodeExecutor() {
+        return imageEncodeExecutor;
+    }
+
+    Timer.Sample startTimer() {
+        return Timer.start(meterRegistry);
+    }
+
+    void recordBytesOut(Upload upload, String variant, long size) {
+        bytesOutSummary(variant).record(size);
+        upload.bytesOut.put(variant, size);
+    }
+
+    // Stored bytes against uploaded bytes, per variant: the saving the encoder settings buy.
+    private void report(Upload upload) {
+        long bytesIn = upload.file.getSize();
+        if (bytesIn <= 0) {
+            return;
+        }
+        StringJoiner sizes = new StringJoiner(", ");
+        for (Map.Entry<String, Long> variant : new TreeMap<>(upload.bytesOut).entrySet()) {
+            double ratio = (double) variant.getValue() / bytesIn;
+            sizeRatioSummary(variant.getKey()).record(ratio);
+            sizes.add(String.format("%s %d (%.0f%%)", variant.getKey(), variant.getValue(), ratio * 100));
+        }
+        logger.info("Stored '{}' from {} bytes: {}.", upload.name, bytesIn, sizes);
+    }
+
+    // Reads just enough of the header to learn the width and whether there is alpha; the raster is never decoded.
+    private Upload readHeader(MultipartFile file, String name) throws IOException {
+        try (InputStream inputStream = file.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                throw new IOException(String.format("'%s' is not a supported image.", file.getOriginalFilename()));
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                int width = reader.getWidth(0);
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                // Unknown means alpha, which keeps the upload in its own format.
+                boolean alpha = type == null || type.getColorModel().hasAlpha();
+
+                int dot = name.lastIndexOf('.');
+                String extension = dot < 0 ? reader.getFormatName() : name.substring(dot + 1);
+                ImageFormat source = new ImageFormat(extension.toLowerCase(Locale.ROOT), file.getContentType());
+                return new Upload(file, name, width, source, encoder.target(source, alpha));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage resizeImage(BufferedImage image, int width) {
+        return Scalr.resize(image, Scalr.Mode.FIT_TO_WIDTH, width);
+    }
+
+    private Timer uploadTimer(String outcome, String exception) {
+        return Timer.builder("image.upload")
+                .description("Time to resize, encode and store one uploaded image.")
+                .tag("store", store)
+                .tag("outcome", outcome)
+                .tag("exception", exception)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    Timer stageTimer(String stage) {
+        return Timer.builder("image.upload.stage")
+                .description("Time spent in one stage of an upload.")
+                .tag("store", store)
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary bytesInSummary() {
+        return DistributionSummary.builder("image.upload.bytes.in")
+                .description("Size of each uploaded file.")
+                .baseUnit("bytes")
+                .tag("store", store)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary bytesOutSummary(String variant) {
+        return DistributionSummary.builder("image.upload.bytes.out")
+                .description("Size of each stored variant.")
+                .baseUnit("bytes")
+                .tag("store", store)
+                .tag("variant", variant)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // Upload width over decoded width; 1 when the upload was decoded in full.
+    private DistributionSummary decodeSubsamplingSummary() {
+        return DistributionSummary.builder("image.decode.subsampling")
+                .tag("store", store)
+                .register(meterRegistry);
+    }
+
+    // Source width over target width for each resize step; one step per variant narrower than the upload.
+    private DistributionSummary resizeRatioSummary() {
+        return DistributionSummary.builder("image.resize.ratio")
+                .tag("store", store)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary sizeRatioSummary(String variant) {
+        return DistributionSummary.builder("image.upload.size.ratio")
+                .description("Stored size of each variant over the uploaded size.")
+                .tag("store", store)
+                .tag("variant", variant)
+                .register(meterRegistry);
+    }
+
+    // One upload in flight: what the probe learned and what each stored variant weighed.
+    final class Upload {
+
+        private final MultipartFile file;
+        private final String name;
+        private final int width;
+        private final ImageFormat source;
+        private final List<ImageFormat> formats;
+        private final Map<String, Long> bytesOut = new ConcurrentHashMap<>();
+        private CompletableFuture<ImagePlaceholder> placeholder;
+
+        private Upload(MultipartFile file, String name, int width, ImageFormat source, ImageFormat target) {
+            this.file = file;
+            this.name = name;
+            this.width = width;
+            this.source = source;
+            this.formats = encoder.formats(target);
+        }
+
+        MultipartFile file() {
+            return file;
+        }
+
+        ImageFormat source() {
+            return source;
+        }
+
+        // Pixels are needed even for variants that fit when the upload is converted or copied to another format.
+        private boolean needsPixels() {
+            return formats.size() > 1 || formats.get(0) != source;
+        }
+
+        // The upload's own format keeps its name; copies in other formats get the format appended.
+        private String variantName(String variant, ImageFormat format) {
+            return format == formats.get(0) ? variant : variant + "-" + format.extension();
+        }
+
+        private String key(String variant, ImageFormat format) {
+            if (format == source) {
+                return variant + "/" + name;
+            }
+            int dot = name.lastIndexOf('.');
+            return variant + "/" + (dot < 0 ? name : name.substring(0, dot)) + "." + format.extension();
+        }
+    }
+}
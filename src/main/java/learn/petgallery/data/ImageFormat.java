@@ -0,0 +1,9 @@
+package learn.petgallery.data;
+
+// How a variant is stored: the ImageIO format name doubles as the key extension.
+record ImageFormat(String extension, String contentType) {
+
+    boolean isJpeg() {
+        return extension.equals("jpg") || extension.equals("jpeg");
+    }
+}
@@ -0,0 +1,195 @@
+package learn.petgallery.data;
+
+import learn.petgallery.models.ImagePlaceholder;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A dominant color and a BlurHash (see blurha.sh) for an image. Both are computed from a grid of at most
+ * 32x32 cells, each the average of a few evenly spaced pixels, so the cost is the same for a thumbnail
+ * and for a full-size decode. Transparent pixels count as white.
+ */
+@Component
+public class ImagePlaceholderEncoder {
+
+    private static final int GRID = 32;
+    private static final int SAMPLES_PER_CELL = 4;
+    // Components along the longer and the shorter side; 4x3 is the reference encoder's default.
+    private static final int LONG_COMPONENTS = 4;
+    private static final int SHORT_COMPONENTS = 3;
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            double value = i / 255.0;
+            SRGB_TO_LINEAR[i] = value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    public ImagePlaceholder encode(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columns;
+        int rows;
+        if (width >= height) {
+            columns = Math.min(GRID, width);
+            rows = Math.max(1, Math.round((float) columns * height / width));
+        } else {
+            rows = Math.min(GRID, height);
+            columns = Math.max(1, Math.round((float) rows * width / height));
+        }
+
+        // Linear RGB per cell, row by row.
+        double[][] cells = new double[columns * rows][];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                cells[row * columns + column] = sampleCell(image, column, row, columns, rows);
+            }
+        }
+
+        int xComponents = width >= height ? LONG_COMPONENTS : SHORT_COMPONENTS;
+        int yComponents = width >= height ? SHORT_COMPONENTS : LONG_COMPONENTS;
+        return new ImagePlaceholder(null, dominantColor(cells),
+                blurHash(cells, columns, rows, xComponents, yComponents));
+    }
+
+    private static double[] sampleCell(BufferedImage image, int column, int row, int columns, int rows) {
+        int x0 = column * image.getWidth() / columns;
+        int x1 = Math.max(x0 + 1, (column + 1) * image.getWidth() / columns);
+        int y0 = row * image.getHeight() / rows;
+        int y1 = Math.max(y0 + 1, (row + 1) * image.getHeight() / rows);
+        double[] sum = new double[3];
+        int count = 0;
+        for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+            int y = y0 + (2 * sy + 1) * (y1 - y0) / (2 * SAMPLES_PER_CELL);
+            for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                int x = x0 + (2 * sx + 1) * (x1 - x0) / (2 * SAMPLES_PER_CELL);
+                int argb = image.getRGB(x, y);
+                int alpha = argb >>> 24;
+                sum[0] += SRGB_TO_LINEAR[overWhite((argb >> 16) & 0xFF, alpha)];
+                sum[1] += SRGB_TO_LINEAR[overWhite((argb >> 8) & 0xFF, alpha)];
+                sum[2] += SRGB_TO_LINEAR[overWhite(argb & 0xFF, alpha)];
+                count++;
+            }
+        }
+        sum[0] /= count;
+        sum[1] /= count;
+        sum[2] /= count;
+        return sum;
+    }
+
+    private static int overWhite(int channel, int alpha) {
+        return (channel * alpha + 255 * (255 - alpha)) / 255;
+    }
+
+    // The most common color at 4 bits per channel, averaged over the cells that have it. Unlike the mean,
+    // a red cat on grass stays red or green instead of turning brown.
+    private static String dominantColor(double[][] cells) {
+        int[] counts = new int[4096];
+        long[][] sums = new long[4096][3];
+        int best = 0;
+        for (double[] cell : cells) {
+            int r = linearToSrgb(cell[0]);
+            int g = linearToSrgb(cell[1]);
+            int b = linearToSrgb(cell[2]);
+            int bucket = (r >> 4) << 8 | (g >> 4) << 4 | (b >> 4);
+            counts[bucket]++;
+            sums[bucket][0] += r;
+            sums[bucket][1] += g;
+            sums[bucket][2] += b;
+            if (counts[bucket] > counts[best]) {
+                best = bucket;
+            }
+        }
+        int count = counts[best];
+        return String.format("#%02x%02x%02x", sums[best][0] / count, sums[best][1] / count, sums[best][2] / count);
+    }
+
+    private static String blurHash(double[][] cells, int columns, int rows, int xComponents, int yComponents) {
+        double[][] xBasis = basis(xComponents, columns);
+        double[][] yBasis = basis(yComponents, rows);
+        double[][] factors = new double[xComponents * yComponents][3];
+        for (int j = 0; j < yComponents; j++) {
+            for (int i = 0; i < xComponents; i++) {
+                double normalisation = i == 0 && j == 0 ? 1 : 2;
+                double[] factor = factors[j * xComponents + i];
+                for (int y = 0; y < rows; y++) {
+                    for (int x = 0; x < columns; x++) {
+                        double basis = yBasis[j][y] * xBasis[i][x];
+                        double[] cell = cells[y * columns + x];
+                        factor[0] += basis * cell[0];
+                        factor[1] += basis * cell[1];
+                        factor[2] += basis * cell[2];
+                    }
+                }
+                double scale = normalisation / (columns * rows);
+                factor[0] *= scale;
+                factor[1] *= scale;
+                factor[2] *= scale;
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83((xComponents - 1) + (yComponents - 1) * 9, 1, hash);
+
+        double maximumValue = 1;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximumValue = (quantisedMaximum + 1) / 166.0;
+            encode83(quantisedMaximum, 1, hash);
+        } else {
+            encode83(0, 1, hash);
+        }
+
+        double[] dc = factors[0];
+        encode83((linearToSrgb(dc[0]) << 16) + (linearToSrgb(dc[1]) << 8) + linearToSrgb(dc[2]), 4, hash);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            encode83(quantiseAc(ac[0], maximumValue) * 19 * 19
+                    + quantiseAc(ac[1], maximumValue) * 19
+                    + quantiseAc(ac[2], maximumValue), 2, hash);
+        }
+        return hash.toString();
+    }
+
+    // The cosine for each component at each cell, sampled at cell centres so a flat image has no AC energy.
+    private static double[][] basis(int components, int cells) {
+        double[][] basis = new double[components][cells];
+        for (int component = 0; component < components; component++) {
+            for (int cell = 0; cell < cells; cell++) {
+                basis[component][cell] = Math.cos(Math.PI * component * (cell + 0.5) / cells);
+            }
+        }
+        return basis;
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        double scaled = value / maximumValue;
+        double signedRoot = Math.copySign(Math.sqrt(Math.abs(scaled)), scaled);
+        return (int) Math.max(0, Math.min(18, Math.floor(signedRoot * 9 + 9.5)));
+    }
+
+    private static int linearToSrgb(double value) {
+        double clamped = Math.max(0, Math.min(1, value));
+        if (clamped <= 0.0031308) {
+            return (int) (clamped * 12.92 * 255 + 0.5);
+        }
+        return (int) ((1.055 * Math.pow(clamped, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(int value, int length, StringBuilder hash) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (value / (int) Math.pow(83, length - i)) % 83;
+            hash.append(BASE83.charAt(digit));
+        }
+    }
+}
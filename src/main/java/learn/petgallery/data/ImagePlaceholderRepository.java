@@ -0,0 +1,9 @@
+package learn.petgallery.data;
+
+import learn.petgallery.models.ImagePlaceholder;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ImagePlaceholderRepository extends JpaRepository<ImagePlaceholder, String> {
+}
@@ -0,0 +1,49 @@
+package learn.petgallery.data;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The widths every upload is stored at, configured as "name:width" pairs, e.g. "thumbnail:200,full:1200".
+@Component
+public class ImageVariants {
+
+    private final Map<String, Integer> widths = new LinkedHashMap<>();
+
+    public ImageVariants(@Value("${image.variants}") String variants) {
+        for (String variant : variants.split("\\s*,\\s*")) {
+            String[] parts = variant.split("\\s*:\\s*");
+            if (parts.length != 2 || parts[0].isBlank()) {
+                throw new IllegalArgumentException(String.format("Image variant '%s' must be 'name:width'.", variant));
+            }
+            int width = Integer.parseInt(parts[1]);
+            if (width < 1) {
+                throw new IllegalArgumentException(String.format("Image variant '%s' must have a positive width.", variant));
+            }
+            widths.put(parts[0], width);
+        }
+    }
+
+    public List<String> names() {
+        return new ArrayList<>(widths.keySet());
+    }
+
+    public int getWidth(String name) {
+        return widths.get(name);
+    }
+
+    public int getMaxWidth() {
+        return Collections.max(widths.values());
+    }
+
+    public List<Map.Entry<String, Integer>> widestFirst() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(widths.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return entries;
+    }
+}
@@ -0,0 +1,123 @@
+package learn.petgallery.data;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+// Stores variants under a local directory, e.g. for on-prem installs or load tests without S3. Files live at
+// <root>/<variant>/<first two characters of the name>/<name>; names start with the upload's content hash,
+// so the shards fill evenly. Local writes never wait on a network, so blocking and async stores both simply
+// run on the encode pool.
+@Component
+@ConditionalOnProperty(name = "file.store", havingValue = "local")
+public class LocalDiskFileRepository extends ImageFileRepository {
+
+    private static final Pattern SEGMENT = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]*");
+
+    private final Path root;
+    private final String baseUrl;
+
+    public LocalDiskFileRepository(
+            @Value("${file.local.root}") String root,
+            @Value("${file.local.base.url}") String baseUrl,
+            ImageVariants variants,
+            ImageEncoder encoder,
+            ImageDecoder decoder,
+            ImagePlaceholderEncoder placeholderEncoder,
+            @Qualifier("imageEncodeExecutor") Executor imageEncodeExecutor,
+            MeterRegistry meterRegistry) {
+        super(variants, encoder, decoder, placeholderEncoder, imageEncodeExecutor, meterRegistry, "local");
+        this.root = Path.of(root).toAbsolutePath().normalize();
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    // The stored file for a variant, or null when the segments could escape the root or name nothing valid.
+    public Path resolve(String variant, String name) {
+        if (!SEGMENT.matcher(variant).matches() || !SEGMENT.matcher(name).matches() || name.length() < 2) {
+            return null;
+        }
+        return root.resolve(variant).resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    @Override
+    CompletableFuture<String> storeOriginal(Upload upload, String key, String variant, boolean blocking) {
+        return CompletableFuture.supplyAsync(() -> {
+            Timer.Sample store = startTimer();
+            String url = write(upload, key, variant, outputStream -> {
+                try (InputStream inputStream = upload.file().getInputStream()) {
+                    encoder().copy(inputStream, upload.source(), outputStream);
+                }
+            });
+            store.stop(stageTimer("store"));
+            return url;
+        }, imageEncodeExecutor());
+    }
+
+    @Override
+    CompletableFuture<String> storeEncoded(Upload upload, BufferedImage image, String key,
+                                           ImageFormat format, String variant, boolean blocking) {
+        return CompletableFuture.supplyAsync(() -> {
+            Timer.Sample encode = startTimer();
+            String url = write(upload, key, variant, outputStream -> encoder().encode(image, format, outputStream));
+            encode.stop(stageTimer("encode"));
+            return url;
+        }, imageEncodeExecutor());
+    }
+
+    // Written to a temporary file in the target directory and moved into place, so a reader never sees
+    // half a file and a repeat upload simply replaces identical bytes.
+    private String write(Upload upload, String key, String variant, Writer writer) {
+        int slash = key.indexOf('/');
+        Path target = resolve(key.substring(0, slash), key.substring(slash + 1));
+        if (target == null) {
+            throw new UncheckedIOException(new IOException(String.format("'%s' is not a valid file key.", key)));
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(target.getParent());
+            temp = Files.createTempFile(target.getParent(), ".upload-", ".tmp");
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+                writer.write(outputStream);
+            }
+            long size = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            recordBytesOut(upload, variant, size);
+            return baseUrl + "/" + key;
+        } catch (IOException ex) {
+            deleteQuietly(temp);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Leftover temporary files are harmless and never served.
+        }
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(OutputStream outputStream) throws IOException;
+    }
+}
@@ -0,0 +1,36 @@
+package learn.petgallery.data;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Reported as "localDisk" in place of "s3" when files are stored locally: the root must exist (or be
+// creatable) and be writable.
+@Component
+@ConditionalOnProperty(name = "file.store", havingValue = "local")
+public class LocalDiskHealthIndicator extends AbstractHealthIndicator {
+
+    private final Path root;
+
+    public LocalDiskHealthIndicator(@Value("${file.local.root}") String root) {
+        super("Local file store health check failed");
+        this.root = Path.of(root).toAbsolutePath().normalize();
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        Files.createDirectories(root);
+        if (!Files.isWritable(root)) {
+            builder.down().withDetail("root", root.toString()).withDetail("error", "not writable");
+            return;
+        }
+        builder.up()
+                .withDetail("root", root.toString())
+                .withDetail("free", Files.getFileStore(root).getUsableSpace());
+    }
+}
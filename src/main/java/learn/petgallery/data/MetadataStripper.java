@@ -0,0 +1,131 @@
+package learn.petgallery.data;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Copies a JPEG or PNG while dropping the segments that only carry metadata: EXIF, XMP, IPTC, comments and
+ * text chunks. Image data is copied byte for byte, so nothing is re-encoded. Segments that change how the
+ * pixels are rendered (JFIF, ICC profiles, Adobe color transforms, gamma, ...) are kept.
+ * <p>
+ * EXIF orientation goes with the rest of EXIF, which matches the resized variants: they are re-encoded
+ * from the raw pixels and never carried it.
+ */
+final class MetadataStripper {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final Set<String> PNG_METADATA_CHUNKS = Set.of("tEXt", "zTXt", "iTXt", "eXIf", "tIME");
+
+    private MetadataStripper() {
+    }
+
+    static void copy(InputStream inputStream, ImageFormat format, OutputStream outputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        if (format.isJpeg()) {
+            copyJpeg(in, outputStream);
+        } else if (format.extension().equals("png")) {
+            copyPng(in, outputStream);
+        } else {
+            in.transferTo(outputStream);
+        }
+    }
+
+    private static void copyJpeg(DataInputStream in, OutputStream out) throws IOException {
+        if (in.readUnsignedShort() != 0xFFD8) {
+            throw new IOException("Not a JPEG.");
+        }
+        writeMarker(out, 0xD8);
+        while (true) {
+            int marker = readJpegMarker(in);
+            // Everything from the first scan on is entropy-coded image data.
+            if (marker == 0xDA || marker == 0xD9) {
+                writeMarker(out, marker);
+                in.transferTo(out);
+                return;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                writeMarker(out, marker);
+                continue;
+            }
+            int length = in.readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("Corrupt JPEG segment.");
+            }
+            if (isJpegMetadata(marker)) {
+                in.skipNBytes(length - 2);
+                continue;
+            }
+            writeMarker(out, marker);
+            out.write(length >> 8);
+            out.write(length & 0xFF);
+            copyBytes(in, out, length - 2);
+        }
+    }
+
+    // APP0 (JFIF), APP2 (ICC profile) and APP14 (Adobe) affect decoding; the other APPn segments and comments don't.
+    private static boolean isJpegMetadata(int marker) {
+        return marker == 0xFE || (marker >= 0xE1 && marker <= 0xEF && marker != 0xE2 && marker != 0xEE);
+    }
+
+    private static int readJpegMarker(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != 0xFF) {
+            throw new IOException("Corrupt JPEG marker.");
+        }
+        int marker = in.readUnsignedByte();
+        while (marker == 0xFF) {
+            marker = in.readUnsignedByte();
+        }
+        return marker;
+    }
+
+    private static void writeMarker(OutputStream out, int marker) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private static void copyPng(DataInputStream in, OutputStream out) throws IOException {
+        if (!Arrays.equals(in.readNBytes(PNG_SIGNATURE.length), PNG_SIGNATURE)) {
+            throw new IOException("Not a PNG.");
+        }
+        out.write(PNG_SIGNATURE);
+        while (true) {
+            int length = in.readInt();
+            byte[] type = in.readNBytes(4);
+            if (length < 0 || type.length < 4) {
+                throw new IOException("Corrupt PNG chunk.");
+            }
+            String name = new String(type, StandardCharsets.ISO_8859_1);
+            // Chunk data is followed by a 4 byte CRC.
+            if (PNG_METADATA_CHUNKS.contains(name)) {
+                in.skipNBytes(length + 4L);
+                continue;
+            }
+            out.write(length >>> 24);
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(type);
+            copyBytes(in, out, length + 4L);
+            if (name.equals("IEND")) {
+                return;
+            }
+        }
+    }
+
+    private static void copyBytes(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(count, buffer.length));
+            if (read < 0) {
+                throw new IOException("Unexpected end of image.");
+            }
+            out.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+}
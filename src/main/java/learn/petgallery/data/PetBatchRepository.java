@@ -0,0 +1,12 @@
+package learn.petgallery.data;
+
+import learn.petgallery.models.Pet;
+
+public interface PetBatchRepository {
+
+    // Sends pending writes as JDBC batches and detaches everything, keeping long batch transactions small.
+    void flushAndClear();
+
+    // Drops one pet from the persistence context, so a long read doesn't keep every row it has passed.
+    void detach(Pet pet);
+}
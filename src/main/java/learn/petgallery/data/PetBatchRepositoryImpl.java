@@ -0,0 +1,23 @@
+package learn.petgallery.data;
+
+import learn.petgallery.models.Pet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+class PetBatchRepositoryImpl implements PetBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Override
+    public void detach(Pet pet) {
+        entityManager.detach(pet);
+    }
+}
@@ -1,9 +1,75 @@
 package learn.petgallery.data;
 
 import learn.petgallery.models.Pet;
+import learn.petgallery.models.PetListVersion;
+import learn.petgallery.models.PetName;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
-public interface PetRepository extends JpaRepository<Pet, Integer> {
+public interface PetRepository extends JpaRepository<Pet, Integer>, PetBatchRepository {
+
+    String EXPORT_FETCH_SIZE = "500";
+
+    // Keyset page: seeks past the cursor on the primary key, so deep pages cost the same as the first.
+    List<Pet> findByPetIdGreaterThanOrderByPetIdAsc(int petId, Pageable pageable);
+
+    // Keyset pages of names only, for building the search index without loading whole pets.
+    @Query("select new learn.petgallery.models.PetName(p.petId, p.name) from Pet p "
+            + "where p.petId > :petId order by p.petId")
+    List<PetName> findNamesAfter(@Param("petId") int petId, Pageable pageable);
+
+    // Every pet in id order, read through a forward-only cursor EXPORT_FETCH_SIZE rows at a time. Must be
+    // consumed inside a transaction and closed. On MySQL the fetch size only takes effect with
+    // useCursorFetch=true on the JDBC URL; without it Connector/J reads the whole result into memory.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    @Query("select p from Pet p order by p.petId")
+    Stream<Pet> streamAll();
+
+    // Single-statement writes. Unlike save/deleteById they don't load the row first;
+    // a return value of 0 means no pet has that id. Updates bump the version themselves.
+    @Transactional
+    @Modifying
+    @Query("update Pet p set p.name = :#{#pet.name}, p.imageUrl = :#{#pet.imageUrl}, "
+            + "p.imageVariants = :#{#pet.imageVariants}, p.dominantColor = :#{#pet.dominantColor}, "
+            + "p.blurHash = :#{#pet.blurHash}, p.version = p.version + 1, "
+            + "p.updatedAt = instant where p.petId = :#{#pet.petId}")
+    int updatePet(@Param("pet") Pet pet);
+
+    // As updatePet, but 0 also means the pet is no longer at the expected version.
+    @Transactional
+    @Modifying
+    @Query("update Pet p set p.name = :#{#pet.name}, p.imageUrl = :#{#pet.imageUrl}, "
+            + "p.imageVariants = :#{#pet.imageVariants}, p.dominantColor = :#{#pet.dominantColor}, "
+            + "p.blurHash = :#{#pet.blurHash}, p.version = p.version + 1, "
+            + "p.updatedAt = instant where p.petId = :#{#pet.petId} and p.version = :version")
+    int updatePetIfVersion(@Param("pet") Pet pet, @Param("version") long version);
+
+    @Transactional
+    @Modifying
+    @Query("delete from Pet p where p.petId = :petId")
+    int deletePet(@Param("petId") int petId);
+
+    @Query("select new learn.petgallery.models.PetListVersion("
+            + "count(p), max(p.petId), sum(p.version), max(p.updatedAt)) from Pet p")
+    PetListVersion findListVersion();
+
+    @Query("select p.petId from Pet p where p.petId in :petIds")
+    List<Integer> findExistingIds(@Param("petIds") Collection<Integer> petIds);
 }
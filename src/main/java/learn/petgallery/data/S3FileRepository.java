@@ -1,94 +1,182 @@
 package learn.petgallery.data;
 
-import learn.petgallery.exceptions.FileUploadException;
-import org.imgscalr.Scalr;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
-import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectResponse;
-import software.amazon.awssdk.services.s3.model.S3Exception;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+// Blocking stores encode straight into pooled part buffers; the others go through the async client, so an
+// upload waiting on S3 holds no thread at all. Those buffer each encoded variant on the heap until it is
+// stored, since nothing may wait for a pooled part buffer there.
 @Component
-public class S3FileRepository implements FileRepository {
-
-    public final static int MAX_IMAGE_WIDTH = 1200;
+@ConditionalOnProperty(name = "file.store", havingValue = "s3", matchIfMissing = true)
+public class S3FileRepository extends ImageFileRepository {
 
-    private final String accessKeyId;
-    private final String secretAccessKey;
+    private final S3Client s3;
+    private final S3AsyncClient s3Async;
     private final String bucketName;
-    private final Region bucketRegion;
+    private final ByteBufferPool bufferPool;
+    private final Executor partUploadExecutor;
+    private final int maxPartsInFlight;
 
     public S3FileRepository(
-            @Value("${aws.access.key.id}") String accessKeyId,
-            @Value("${aws.secret.access.key}") String secretAccessKey,
+            S3Client s3,
+            S3AsyncClient s3Async,
             @Value("${aws.s3.bucket.name}") String bucketName,
-            @Value("${aws.s3.bucket.region}") String bucketRegion) {
-        this.accessKeyId = accessKeyId;
-        this.secretAccessKey = secretAccessKey;
+            ImageVariants variants,
+            ImageEncoder encoder,
+            ImageDecoder decoder,
+            ImagePlaceholderEncoder placeholderEncoder,
+            ByteBufferPool bufferPool,
+            @Qualifier("s3PartUploadExecutor") Executor partUploadExecutor,
+            @Value("${aws.s3.multipart.max.parts.in.flight}") int maxPartsInFlight,
+            @Qualifier("imageEncodeExecutor") Executor imageEncodeExecutor,
+            MeterRegistry meterRegistry) {
+        super(variants, encoder, decoder, placeholderEncoder, imageEncodeExecutor, meterRegistry, "s3");
+        this.s3 = s3;
+        this.s3Async = s3Async;
         this.bucketName = bucketName;
-        this.bucketRegion = Region.of(bucketRegion);
+        this.bufferPool = bufferPool;
+        this.partUploadExecutor = partUploadExecutor;
+        this.maxPartsInFlight = maxPartsInFlight;
     }
 
     @Override
-    public String upload(MultipartFile file) throws FileUploadException {
-        try {
-            return upload(ImageIO.read(file.getInputStream()), file.getOriginalFilename(), file.getContentType());
-        } catch (IOException | S3Exception ex) {
-            throw new FileUploadException(ex.getMessage(), ex);
+    boolean isStoreFailure(Throwable ex) {
+        return ex instanceof SdkException;
+    }
+
+    @Override
+    CompletableFuture<String> storeOriginal(Upload upload, String key, String variant, boolean blocking) {
+        if (blocking) {
+            return CompletableFuture.supplyAsync(
+                    () -> uncheckedUploadOriginal(upload, key, variant), imageEncodeExecutor());
+        }
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream((int) upload.file().getSize());
+        try (InputStream inputStream = upload.file().getInputStream()) {
+            encoder().copy(inputStream, upload.source(), outputStream);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return store(upload, key, upload.source().contentType(), outputStream.toByteBuffer(), variant);
+    }
+
+    @Override
+    CompletableFuture<String> storeEncoded(Upload upload, BufferedImage image, String key,
+                                           ImageFormat format, String variant, boolean blocking) {
+        if (blocking) {
+            return CompletableFuture.supplyAsync(
+                    () -> uncheckedUpload(upload, image, key, format, variant), imageEncodeExecutor());
         }
+        return CompletableFuture.supplyAsync(() -> uncheckedEncode(image, format), imageEncodeExecutor())
+                .thenCompose(encoded -> store(upload, key, format.contentType(), encoded, variant));
     }
 
-    private String upload(BufferedImage image, String filename, String contentType) throws FileUploadException {
-        AwsBasicCredentials awsCreds = AwsBasicCredentials.create(accessKeyId, secretAccessKey);
+    private ByteBuffer uncheckedEncode(BufferedImage image, ImageFormat format) {
+        Timer.Sample encode = startTimer();
+        ByteBufferOutputStream outputStream = new ByteBufferOutputStream(64 * 1024);
+        try {
+            encoder().encode(image, format, outputStream);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        encode.stop(stageTimer("encode"));
+        return outputStream.toByteBuffer();
+    }
 
-        try (S3Client s3 = S3Client.builder()
-                .region(bucketRegion)
-                .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
-                .build()) {
+    private CompletableFuture<String> store(Upload upload, String key, String contentType, ByteBuffer body,
+                                            String variant) {
+        Timer.Sample store = startTimer();
+        long size = body.remaining();
+        return s3Async.putObject(buildS3PutRequest(key, contentType), AsyncRequestBody.fromRemainingByteBufferUnsafe(body))
+                .thenApply(response -> {
+                    store.stop(stageTimer("store"));
+                    recordBytesOut(upload, variant, size);
+                    return getUrl(key);
+                });
+    }
 
-            if (image.getWidth() > MAX_IMAGE_WIDTH) {
-                image = resizeImage(image);
-            }
+    private String uncheckedUpload(Upload upload, BufferedImage image, String key, ImageFormat format,
+                                   String variant) {
+        try {
+            return upload(upload, image, key, format, variant);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
-            PutObjectRequest request = buildS3PutRequest(filename, contentType);
-            RequestBody requestBody = convertImageToRequestBody(filename, image);
+    private String uncheckedUploadOriginal(Upload upload, String key, String variant) {
+        try {
+            return uploadOriginal(upload, key, variant);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
 
-            PutObjectResponse response = s3.putObject(request, requestBody);
+    private String upload(Upload upload, BufferedImage image, String key, ImageFormat format, String variant)
+            throws IOException {
+        // The encoder writes straight into pooled part buffers, so the encoded image is never copied on the heap.
+        S3MultipartOutputStream outputStream = openOutputStream(key, format.contentType());
+        try {
+            Timer.Sample encode = startTimer();
+            encoder().encode(image, format, outputStream);
+            encode.stop(stageTimer("encode"));
+
+            Timer.Sample store = startTimer();
+            outputStream.close();
+            store.stop(stageTimer("store"));
+        } catch (IOException | RuntimeException ex) {
+            outputStream.abort();
+            throw ex;
+        }
+        recordBytesOut(upload, variant, outputStream.getSize());
+        return getUrl(key);
+    }
 
-            return s3.utilities().getUrl(builder -> builder.bucket(bucketName).key(filename)).toString();
-        } catch (IOException | S3Exception ex) {
-            throw new FileUploadException(ex.getMessage(), ex);
+    private String uploadOriginal(Upload upload, String key, String variant) throws IOException {
+        Timer.Sample store = startTimer();
+        S3MultipartOutputStream outputStream = openOutputStream(key, upload.source().contentType());
+        try (InputStream inputStream = upload.file().getInputStream()) {
+            encoder().copy(inputStream, upload.source(), outputStream);
+            outputStream.close();
+        } catch (IOException | RuntimeException ex) {
+            outputStream.abort();
+            throw ex;
         }
+        store.stop(stageTimer("store"));
+        recordBytesOut(upload, variant, outputStream.getSize());
+        return getUrl(key);
     }
 
-    private PutObjectRequest buildS3PutRequest(String filename, String contentType) {
-        return PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(filename)
-                .contentType(contentType)
-                .build();
+    private S3MultipartOutputStream openOutputStream(String key, String contentType) {
+        return new S3MultipartOutputStream(s3, bufferPool, partUploadExecutor, maxPartsInFlight,
+                bucketName, key, contentType);
     }
 
-    private RequestBody convertImageToRequestBody(String filename, BufferedImage image) throws IOException {
-        String extension = filename.substring(filename.lastIndexOf(".") + 1);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ImageIO.write(image, extension, outputStream);
-        byte[] bytes = outputStream.toByteArray();
-        return RequestBody.fromBytes(bytes);
+    private String getUrl(String key) {
+        return s3.utilities().getUrl(builder -> builder.bucket(bucketName).key(key)).toString();
     }
 
-    private BufferedImage resizeImage(BufferedImage original) {
-        return Scalr.resize(original, MAX_IMAGE_WIDTH);
+    private PutObjectRequest buildS3PutRequest(String key, String contentType) {
+        return PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package learn.petgallery.data;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+
+// Reported as "s3" next to the data source's "db". HEAD Bucket checks reachability, credentials and that the
+// bucket exists without listing or reading anything.
+@Component
+@ConditionalOnProperty(name = "file.store", havingValue = "s3", matchIfMissing = true)
+public class S3HealthIndicator extends AbstractHealthIndicator {
+
+    private final S3Client s3;
+    private final String bucketName;
+
+    public S3HealthIndicator(S3Client s3, @Value("${aws.s3.bucket.name}") String bucketName) {
+        super("S3 health check failed");
+        this.s3 = s3;
+        this.bucketName = bucketName;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        s3.headBucket(HeadBucketRequest.builder().bucket(bucketName).build());
+        builder.up().withDetail("bucket", bucketName);
+    }
+}
@@ -0,0 +1,233 @@
+package learn.petgallery.data;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Writes an object to S3 through pooled off-heap part buffers. Objects that fit in one buffer are stored
+ * with a single PUT; anything larger switches to a multipart upload whose parts are sent in parallel.
+ * At most {@code maxPartsInFlight} buffers are held per stream, which caps its memory regardless of object size.
+ * <p>
+ * {@link #close()} completes the object. Callers that fail part way must call {@link #abort()} instead.
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    private final S3Client s3;
+    private final ByteBufferPool bufferPool;
+    private final Executor executor;
+    private final Semaphore partsInFlight;
+    private final String bucketName;
+    private final String key;
+    private final String contentType;
+
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private ByteBuffer buffer;
+    private String uploadId;
+    private long size;
+    private boolean closed;
+    private boolean aborted;
+
+    S3MultipartOutputStream(S3Client s3, ByteBufferPool bufferPool, Executor executor, int maxPartsInFlight,
+                            String bucketName, String key, String contentType) {
+        this.s3 = s3;
+        this.bufferPool = bufferPool;
+        this.executor = executor;
+        this.partsInFlight = new Semaphore(maxPartsInFlight);
+        this.bucketName = bucketName;
+        this.key = key;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        size += len;
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = acquireBuffer();
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+            if (!buffer.hasRemaining()) {
+                uploadPart();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (uploadId == null) {
+                putSingleObject();
+                return;
+            }
+            if (buffer != null && buffer.position() > 0) {
+                uploadPart();
+            }
+            releaseBuffer();
+            completeMultipartUpload();
+        } catch (IOException ex) {
+            abort();
+            throw ex;
+        } catch (RuntimeException ex) {
+            abort();
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    // Bytes written so far.
+    public long getSize() {
+        return size;
+    }
+
+    public void abort() {
+        if (aborted) {
+            return;
+        }
+        aborted = true;
+        closed = true;
+        releaseBuffer();
+        for (CompletableFuture<CompletedPart> part : parts) {
+            part.handle((completed, ex) -> null).join();
+        }
+        if (uploadId != null) {
+            s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build());
+        }
+    }
+
+    private void putSingleObject() {
+        ByteBuffer body = buffer == null ? ByteBuffer.allocate(0) : buffer.flip();
+        try {
+            PutObjectRequest request = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
+            s3.putObject(request, toRequestBody(body));
+        } finally {
+            releaseBuffer();
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        // Stop feeding parts as soon as one has failed instead of encoding the rest of the image for nothing.
+        for (CompletableFuture<CompletedPart> part : parts) {
+            if (part.isCompletedExceptionally()) {
+                throw new IOException(String.format("Upload of '%s' failed.", key), part.handle((completed, ex) -> ex).join());
+            }
+        }
+        if (uploadId == null) {
+            uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build()).uploadId();
+        }
+
+        ByteBuffer part = buffer.flip();
+        buffer = null;
+        int partNumber = parts.size() + 1;
+
+        parts.add(CompletableFuture.supplyAsync(() -> {
+            try {
+                UploadPartRequest request = UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .build();
+                UploadPartResponse response = s3.uploadPart(request, toRequestBody(part));
+                return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+            } finally {
+                bufferPool.release(part);
+                partsInFlight.release();
+            }
+        }, executor));
+    }
+
+    private void completeMultipartUpload() {
+        List<CompletedPart> completedParts = new ArrayList<>();
+        try {
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completedParts.add(part.join());
+            }
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+        }
+        s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build());
+    }
+
+    private RequestBody toRequestBody(ByteBuffer body) {
+        return RequestBody.fromContentProvider(
+                () -> new ByteBufferInputStream(body.duplicate()), body.remaining(), contentType);
+    }
+
+    private ByteBuffer acquireBuffer() throws IOException {
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an upload buffer.");
+        }
+        try {
+            return bufferPool.acquire();
+        } catch (InterruptedException ex) {
+            partsInFlight.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an upload buffer.");
+        }
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            partsInFlight.release();
+            buffer = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+    }
+}
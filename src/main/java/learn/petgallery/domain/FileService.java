@@ -1,27 +1,206 @@
 package learn.petgallery.domain;
 
 import learn.petgallery.data.FileRepository;
+import learn.petgallery.data.ImagePlaceholderRepository;
 import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.ImagePlaceholder;
+import learn.petgallery.models.StoredImage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 @Service
 public class FileService {
 
+    private static final Logger logger = LoggerFactory.getLogger(FileService.class);
+
+    public static final String UPLOAD_INDEX = "uploads";
+
+    private static final int HASH_LENGTH = 64;
+
     private final FileRepository fileRepository;
+    private final ImagePlaceholderRepository placeholderRepository;
+    private final ImageUploadValidator validator;
+    private final ImageDecodeLimiter decodeLimiter;
+    private final Cache uploadIndex;
 
-    public FileService(FileRepository fileRepository) {
+    public FileService(FileRepository fileRepository, ImagePlaceholderRepository placeholderRepository,
+                       ImageUploadValidator validator, ImageDecodeLimiter decodeLimiter, CacheManager cacheManager) {
         this.fileRepository = fileRepository;
+        this.placeholderRepository = placeholderRepository;
+        this.validator = validator;
+        this.decodeLimiter = decodeLimiter;
+        this.uploadIndex = cacheManager.getCache(UPLOAD_INDEX);
     }
 
-    public Result<String> uploadFile(MultipartFile file) {
-        Result<String> result = new Result<>();
+    // The content hash in the URL of any stored variant, or null for an image that wasn't uploaded here.
+    public static String findHash(String url) {
+        if (url == null) {
+            return null;
+        }
+        String filename = url.substring(url.lastIndexOf('/') + 1);
+        int dot = filename.indexOf('.');
+        String hash = dot < 0 ? filename : filename.substring(0, dot);
+        if (hash.length() != HASH_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (Character.digit(hash.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        return hash;
+    }
+
+    // Files are stored under the SHA-256 of their bytes, so different photos never share a key and
+    // a repeat upload is answered from the index without decoding, resizing or storing anything.
+    // Upload jobs call this, so it waits for a decode permit rather than failing the job.
+    public Result<Map<String, String>> uploadFile(MultipartFile file) {
+        Result<Map<String, String>> result = new Result<>();
+        validator.validate(file, result);
+        if (!result.isSuccess()) {
+            return result;
+        }
         try {
-            result.setPayload(fileRepository.upload(file));
-        } catch (FileUploadException ex) {
-            ex.printStackTrace();
-            result.addMessage("File not uploaded.", ResultType.INVALID);
+            String name = buildName(file);
+            Map<String, String> stored = findStored(name);
+            if (stored != null) {
+                result.setPayload(stored);
+                return result;
+            }
+
+            decodeLimiter.acquire();
+            StoredImage image;
+            try {
+                image = fileRepository.upload(file, name);
+            } finally {
+                decodeLimiter.release();
+            }
+            savePlaceholder(name, image.getPlaceholder());
+            uploadIndex.put(name, image.getUrls());
+            result.setPayload(image.getUrls());
+        } catch (IOException | FileUploadException ex) {
+            notUploaded(file, ex, result);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            result.addMessage("File not uploaded.", ResultType.BUSY);
         }
         return result;
     }
+
+    // Hashing still reads the spooled file on the calling thread; everything after that runs without it.
+    // When every decode permit is taken the upload is refused as BUSY instead of waiting for one.
+    public CompletableFuture<Result<Map<String, String>>> uploadFileAsync(MultipartFile file) {
+        Result<Map<String, String>> result = new Result<>();
+        validator.validate(file, result);
+        if (!result.isSuccess()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        String name;
+        try {
+            name = buildName(file);
+        } catch (IOException ex) {
+            notUploaded(file, ex, result);
+            return CompletableFuture.completedFuture(result);
+        }
+
+        Map<String, String> stored = findStored(name);
+        if (stored != null) {
+            result.setPayload(stored);
+            return CompletableFuture.completedFuture(result);
+        }
+
+        if (!decodeLimiter.tryAcquire()) {
+            result.addMessage("Too many images being processed. Try again later.", ResultType.BUSY);
+            return CompletableFuture.completedFuture(result);
+        }
+        CompletableFuture<StoredImage> upload;
+        try {
+            upload = fileRepository.uploadAsync(file, name);
+        } catch (RuntimeException ex) {
+            decodeLimiter.release();
+            throw ex;
+        }
+
+        return upload.whenComplete((image, ex) -> decodeLimiter.release()).handle((image, ex) -> {
+            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+            if (cause == null) {
+                savePlaceholder(name, image.getPlaceholder());
+                uploadIndex.put(name, image.getUrls());
+                result.setPayload(image.getUrls());
+            } else if (cause instanceof FileUploadException) {
+                notUploaded(file, cause, result);
+            } else {
+                throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            }
+            return result;
+        });
+    }
+
+    // Repeat uploads are answered from the index and never get here, but their placeholder is already saved.
+    // Losing one only costs the pets using the image their placeholder, so it never fails the upload.
+    private void savePlaceholder(String name, ImagePlaceholder placeholder) {
+        if (placeholder == null) {
+            return;
+        }
+        placeholder.setImageHash(findHash(name));
+        try {
+            placeholderRepository.save(placeholder);
+        } catch (DataAccessException ex) {
+            logger.warn("Placeholder for '{}' not saved.", name, ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> findStored(String name) {
+        Cache.ValueWrapper stored = uploadIndex.get(name);
+        return stored == null ? null : (Map<String, String>) stored.get();
+    }
+
+    private void notUploaded(MultipartFile file, Throwable ex, Result<Map<String, String>> result) {
+        logger.warn("Upload of '{}' failed.", file.getOriginalFilename(), ex);
+        result.addMessage("File not uploaded.", ResultType.INVALID);
+    }
+
+    // The extension is kept because the image encoder picks its format from it.
+    private String buildName(MultipartFile file) throws IOException {
+        String filename = file.getOriginalFilename();
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        String hash = hash(file);
+        return dot < 0 ? hash : hash + filename.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+    private String hash(MultipartFile file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = file.getInputStream()) {
+            for (int count = inputStream.read(buffer); count != -1; count = inputStream.read(buffer)) {
+                digest.update(buffer, 0, count);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JRE is required to provide SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
 }
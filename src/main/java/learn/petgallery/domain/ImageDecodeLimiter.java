@@ -0,0 +1,81 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+
+// Caps how many uploads are decoded, resized and encoded at once, across every client. An upload holds its
+// rasters and encode buffers until its variants are stored, so it keeps its permit until then. Unless
+// max.concurrent is set, the cap is the core count or the number of decodes of decode.bytes that fit in
+// heap.fraction of the maximum heap, whichever is smaller.
+@Component
+public class ImageDecodeLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageDecodeLimiter.class);
+
+    private final int limit;
+    private final Semaphore permits;
+    private final Counter admitted;
+    private final Counter queued;
+    private final Counter throttled;
+
+    public ImageDecodeLimiter(@Value("${image.decode.max.concurrent}") int maxConcurrent,
+                              @Value("${image.decode.heap.fraction}") double heapFraction,
+                              @Value("${image.decode.bytes}") long bytesPerDecode,
+                              MeterRegistry meterRegistry) {
+        this.limit = maxConcurrent > 0
+                ? maxConcurrent
+                : limitFor(Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors(),
+                        heapFraction, bytesPerDecode);
+        this.permits = new Semaphore(limit);
+        this.admitted = UploadRateLimiter.admissionCounter(meterRegistry, "decode", "admitted");
+        this.queued = UploadRateLimiter.admissionCounter(meterRegistry, "decode", "queued");
+        this.throttled = UploadRateLimiter.admissionCounter(meterRegistry, "decode", "throttled");
+        Gauge.builder("upload.decode.active", permits, available -> limit - available.availablePermits())
+                .description("Uploads holding a decode permit.")
+                .register(meterRegistry);
+        Gauge.builder("upload.decode.limit", () -> limit)
+                .description("Uploads that may be decoded at once.")
+                .register(meterRegistry);
+        logger.info("Decode limit: {} concurrent uploads.", limit);
+    }
+
+    static int limitFor(long maxHeap, int cores, double heapFraction, long bytesPerDecode) {
+        long fit = (long) (maxHeap * heapFraction / bytesPerDecode);
+        return (int) Math.max(1, Math.min(cores, fit));
+    }
+
+    // For requests: a client that can't start now is told to come back rather than held on to.
+    public boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+        throttled.increment();
+        return false;
+    }
+
+    // For queued jobs, which have nobody to turn away and simply wait their turn.
+    public void acquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            admitted.increment();
+            return;
+        }
+        queued.increment();
+        permits.acquire();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
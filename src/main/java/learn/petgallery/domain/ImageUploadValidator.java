@@ -0,0 +1,137 @@
+package learn.petgallery.domain;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+// Everything here runs before a single pixel is decoded: the size, the declared content type, the file's magic
+// bytes and the dimensions from the image header. A decompression bomb is a few kilobytes that declare
+// gigapixels, so the pixel cap is what keeps one from filling the heap.
+@Component
+public class ImageUploadValidator {
+
+    // Content type -> ImageIO format; only formats the JDK can decode.
+    private static final Map<String, String> FORMATS = Map.of(
+            "image/jpeg", "jpeg",
+            "image/jpg", "jpeg",
+            "image/png", "png",
+            "image/gif", "gif",
+            "image/bmp", "bmp");
+
+    private final long maxBytes;
+    private final long maxPixels;
+
+    public ImageUploadValidator(@Value("${upload.max.bytes}") long maxBytes,
+                                @Value("${upload.max.pixels}") long maxPixels) {
+        this.maxBytes = maxBytes;
+        this.maxPixels = maxPixels;
+    }
+
+    // Adds at most one message; the result stays successful when the upload may be decoded.
+    public void validate(MultipartFile file, Result<?> result) {
+        if (file == null || file.isEmpty()) {
+            result.addMessage("File is required.", ResultType.INVALID);
+            return;
+        }
+        String format = validateDeclared(file.getContentType(), file.getSize(), result);
+        if (format == null) {
+            return;
+        }
+
+        try (InputStream inputStream = file.getInputStream()) {
+            String sniffed = sniff(inputStream.readNBytes(8));
+            if (!format.equals(sniffed)) {
+                result.addMessage(String.format("File content is not a %s image.", format.toUpperCase(Locale.ROOT)),
+                        ResultType.UNSUPPORTED);
+                return;
+            }
+        } catch (IOException ex) {
+            result.addMessage("File could not be read.", ResultType.INVALID);
+            return;
+        }
+
+        long[] size = readDimensions(file, format);
+        if (size == null) {
+            result.addMessage("Image header could not be read.", ResultType.INVALID);
+        } else if (size[0] * size[1] > maxPixels) {
+            result.addMessage(String.format("Image is %dx%d; the limit is %d pixels.", size[0], size[1], maxPixels),
+                    ResultType.TOO_LARGE);
+        }
+    }
+
+    // The checks that need only what the client declares, so a resumable upload can be turned away before
+    // its first chunk. Returns the ImageIO format, or null after adding a message.
+    String validateDeclared(String contentType, long size, Result<?> result) {
+        if (size > maxBytes) {
+            result.addMessage(String.format("File is %d bytes; the limit is %d.", size, maxBytes),
+                    ResultType.TOO_LARGE);
+            return null;
+        }
+        String format = contentType == null ? null : FORMATS.get(contentType.toLowerCase(Locale.ROOT));
+        if (format == null) {
+            result.addMessage(String.format("Content type '%s' is not supported.", contentType),
+                    ResultType.UNSUPPORTED);
+        }
+        return format;
+    }
+
+    private static String sniff(byte[] head) {
+        if (startsWith(head, 0xFF, 0xD8, 0xFF)) {
+            return "jpeg";
+        } else if (startsWith(head, 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n')) {
+            return "png";
+        } else if (startsWith(head, 'G', 'I', 'F', '8')) {
+            return "gif";
+        } else if (startsWith(head, 'B', 'M')) {
+            return "bmp";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] head, int... magic) {
+        if (head.length < magic.length) {
+            return false;
+        }
+        return Arrays.equals(Arrays.copyOf(head, magic.length), toBytes(magic));
+    }
+
+    private static byte[] toBytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    // Width and height as the header declares them, or null when there is no usable header.
+    private static long[] readDimensions(MultipartFile file, String format) {
+        try (InputStream inputStream = file.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(format);
+            if (imageInputStream == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                long width = reader.getWidth(0);
+                long height = reader.getHeight(0);
+                return width > 0 && height > 0 ? new long[]{width, height} : null;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import learn.petgallery.data.PetRepository;
+import learn.petgallery.models.PetName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory inverted index over pet names. Names are split into lowercase letter/digit tokens; each token
+ * maps to the sorted ids of the pets whose names contain it. A query matches a pet when every query term is a
+ * prefix of one of its tokens, so "flu" and "cat fl" both find "Fluffy the Cat".
+ * <p>
+ * Matches rank by how close they are to the query: the exact name first, then names that start with the first
+ * term, then the rest; shorter names before longer ones and lower ids first within each. The index is built
+ * from the database once the application is ready and kept current by {@link PetService}.
+ */
+@Component
+public class PetNameIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(PetNameIndex.class);
+
+    private static final int TIER_EXACT = 0;
+    private static final int TIER_LEADING = 1;
+    private static final int TIER_OTHER = 2;
+
+    private final PetRepository petRepository;
+    private final int loadPageSize;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Ids come from a sequence, so they are dense enough to index an array directly.
+    private String[] names = new String[1024];
+    // Length of each name as tokenized, by id: ranking reads it for every match, so it is kept apart from the
+    // strings where it stays in cache.
+    private short[] lengths = new short[1024];
+    private int size;
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    // The same, for each name's first token only.
+    private final TreeMap<String, Postings> leading = new TreeMap<>();
+    private long postingCount;
+    private long nameBytes;
+
+    public PetNameIndex(PetRepository petRepository,
+                        @Value("${pet.search.load.page.size}") int loadPageSize,
+                        MeterRegistry meterRegistry) {
+        this.petRepository = petRepository;
+        this.loadPageSize = loadPageSize;
+        Gauge.builder("pet.search.index.pets", this, index -> index.read(() -> index.size))
+                .register(meterRegistry);
+        Gauge.builder("pet.search.index.tokens", this, index -> index.read(index.postings::size))
+                .register(meterRegistry);
+        Gauge.builder("pet.search.index.bytes", this, index -> index.read(index::estimateBytes))
+                .description("Rough heap footprint of the pet name index.")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // Rebuilds the index from the pet table, a page of names at a time.
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        long start = System.nanoTime();
+        write(() -> {
+            names = new String[1024];
+            lengths = new short[1024];
+            size = 0;
+            postings.clear();
+            leading.clear();
+            postingCount = 0;
+            nameBytes = 0;
+        });
+        int after = 0;
+        List<PetName> page;
+        do {
+            page = petRepository.findNamesAfter(after, PageRequest.of(0, loadPageSize));
+            for (PetName pet : page) {
+                put(pet.getPetId(), pet.getName());
+                after = pet.getPetId();
+            }
+        } while (page.size() == loadPageSize);
+
+        read(() -> {
+            logger.info("Indexed {} pet names: {} tokens, {} postings, about {} KB, in {} ms.", size, postings.size(),
+                    postingCount, estimateBytes() / 1024, (System.nanoTime() - start) / 1_000_000);
+            return null;
+        });
+    }
+
+    // Adds the pet or replaces its name.
+    public void put(int petId, String name) {
+        if (petId <= 0) {
+            return;
+        }
+        List<String> tokens = tokenize(name);
+        write(() -> {
+            removeUnderLock(petId);
+            if (tokens.isEmpty()) {
+                return;
+            }
+            if (petId >= names.length) {
+                names = Arrays.copyOf(names, Math.max(petId + 1, names.length * 2));
+                lengths = Arrays.copyOf(lengths, names.length);
+            }
+            names[petId] = name;
+            nameBytes += stringBytes(name);
+            lengths[petId] = (short) Math.min(String.join(" ", tokens).length(), Short.MAX_VALUE);
+            size++;
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, ignored -> new Postings()).add(petId);
+                postingCount++;
+            }
+            leading.computeIfAbsent(tokens.get(0), ignored -> new Postings()).add(petId);
+        });
+    }
+
+    public void remove(int petId) {
+        write(() -> removeUnderLock(petId));
+    }
+
+    // Ranked ids of one page of matches, plus how many pets match in total.
+    public Hits search(String query, int offset, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new Hits(0, List.of());
+        }
+        return read(() -> {
+            BitSet matches = null;
+            for (String term : terms) {
+                BitSet termMatches = matchPrefix(postings, term, names.length);
+                if (matches == null) {
+                    matches = termMatches;
+                } else {
+                    matches.and(termMatches);
+                }
+                if (matches.isEmpty()) {
+                    return new Hits(0, List.of());
+                }
+            }
+            return rank(matches, terms, offset, limit);
+        });
+    }
+
+    private static Collection<Postings> prefixRange(TreeMap<String, Postings> index, String term) {
+        return index.subMap(term, true, term + Character.MAX_VALUE, false).values();
+    }
+
+    private static BitSet matchPrefix(TreeMap<String, Postings> index, String term, int maxId) {
+        BitSet matches = new BitSet(maxId);
+        for (Postings ids : prefixRange(index, term)) {
+            for (int i = 0; i < ids.size; i++) {
+                matches.set(ids.ids[i]);
+            }
+        }
+        return matches;
+    }
+
+    // Names led by the first term outrank every other match, so the others are only ranked while the page
+    // still has room. Ranking keeps just the best offset + limit keys, as primitives.
+    private Hits rank(BitSet matches, List<String> terms, int offset, int limit) {
+        int total = matches.cardinality();
+        if (offset >= total) {
+            return new Hits(total, List.of());
+        }
+        String exact = String.join(" ", terms);
+        TopKeys best = new TopKeys((int) Math.min((long) offset + limit, total));
+
+        // Each pet has one leading token, so walking its postings visits every leading match once.
+        Collection<Postings> leadingPostings = prefixRange(leading, terms.get(0));
+        boolean checkMatches = terms.size() > 1;
+        for (Postings postings : leadingPostings) {
+            for (int i = 0; i < postings.size; i++) {
+                int id = postings.ids[i];
+                // Even as an exact match this one would not make the page, so its name need not be read.
+                if (checkMatches && !matches.get(id) || !best.accepts(rankKey(TIER_EXACT, id))) {
+                    continue;
+                }
+                boolean isExact = lengths[id] == exact.length() && isExact(names[id], exact);
+                best.offer(rankKey(isExact ? TIER_EXACT : TIER_LEADING, id));
+            }
+        }
+        if (!best.isFull()) {
+            BitSet others = (BitSet) matches.clone();
+            for (Postings postings : leadingPostings) {
+                for (int i = 0; i < postings.size; i++) {
+                    others.clear(postings.ids[i]);
+                }
+            }
+            for (int id = others.nextSetBit(0); id >= 0; id = others.nextSetBit(id + 1)) {
+                best.offer(rankKey(TIER_OTHER, id));
+            }
+        }
+
+        long[] ranked = best.sorted();
+        List<Integer> ids = new ArrayList<>();
+        for (int i = offset; i < ranked.length; i++) {
+            ids.add((int) ranked[i]);
+        }
+        return new Hits(total, ids);
+    }
+
+    // Tier, then name length, then id, packed so that smaller is better.
+    private long rankKey(int tier, int petId) {
+        return (long) tier << 48 | (long) lengths[petId] << 32 | petId;
+    }
+
+    // Whether the name tokenizes to exactly the query's terms, walked in place: this runs for every leading
+    // match, so it must not allocate.
+    private static boolean isExact(String name, String exact) {
+        int at = 0;
+        boolean gap = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                gap = true;
+                continue;
+            }
+            if (gap && at > 0) {
+                if (at >= exact.length() || exact.charAt(at) != ' ') {
+                    return false;
+                }
+                at++;
+            }
+            gap = false;
+            if (at >= exact.length() || exact.charAt(at) != Character.toLowerCase(c)) {
+                return false;
+            }
+            at++;
+        }
+        return at == exact.length();
+    }
+
+    private void removeUnderLock(int petId) {
+        if (petId >= names.length || names[petId] == null) {
+            return;
+        }
+        List<String> tokens = tokenize(names[petId]);
+        for (String token : tokens) {
+            removePosting(postings, token, petId);
+            postingCount--;
+        }
+        removePosting(leading, tokens.get(0), petId);
+        nameBytes -= stringBytes(names[petId]);
+        names[petId] = null;
+        size--;
+    }
+
+    private static void removePosting(TreeMap<String, Postings> index, String token, int petId) {
+        Postings ids = index.get(token);
+        ids.remove(petId);
+        if (ids.size == 0) {
+            index.remove(token);
+        }
+    }
+
+    // Distinct tokens in order of appearance.
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty() && !tokens.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // Compressed-oops object sizes: each name and token string, the tree nodes, the posting arrays and the
+    // by-id arrays. Names are totalled as they change, so a metrics scrape only walks the tokens. Close enough to watch growth; PetSearchBenchmark measures the real figure.
+    private long estimateBytes() {
+        long bytes = 32 + 6L * names.length + nameBytes;
+        for (String token : postings.keySet()) {
+            bytes += 40 + stringBytes(token) + 32;
+        }
+        for (String token : leading.keySet()) {
+            bytes += 40 + stringBytes(token) + 32;
+        }
+        for (Postings ids : postings.values()) {
+            bytes += 4L * ids.ids.length;
+        }
+        for (Postings ids : leading.values()) {
+            bytes += 4L * ids.ids.length;
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        return 24 + 16 + value.length();
+    }
+
+    private <T> T read(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public record Hits(int total, List<Integer> petIds) {
+    }
+
+    // Sorted ids in a growable array. Ids mostly arrive in increasing order, so adds are usually appends.
+    private static final class Postings {
+
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            size--;
+        }
+    }
+
+    // A bounded max-heap: holds the smallest keys offered so far, evicting the largest.
+    private static final class TopKeys {
+
+        private final long[] heap;
+        private int count;
+
+        private TopKeys(int capacity) {
+            heap = new long[capacity];
+        }
+
+        boolean isFull() {
+            return count == heap.length;
+        }
+
+        boolean accepts(long key) {
+            return !isFull() || key < heap[0];
+        }
+
+        void offer(long key) {
+            if (count < heap.length) {
+                int at = count++;
+                while (at > 0 && heap[(at - 1) / 2] < key) {
+                    heap[at] = heap[(at - 1) / 2];
+                    at = (at - 1) / 2;
+                }
+                heap[at] = key;
+            } else if (count > 0 && key < heap[0]) {
+                int at = 0;
+                while (true) {
+                    int child = 2 * at + 1;
+                    if (child >= count) {
+                        break;
+                    }
+                    if (child + 1 < count && heap[child + 1] > heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] <= key) {
+                        break;
+                    }
+                    heap[at] = heap[child];
+                    at = child;
+                }
+                heap[at] = key;
+            }
+        }
+
+        long[] sorted() {
+            long[] keys = Arrays.copyOf(heap, count);
+            Arrays.sort(keys);
+            return keys;
+        }
+    }
+}
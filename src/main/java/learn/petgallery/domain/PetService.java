@@ -1,67 +1,391 @@
 package learn.petgallery.domain;
 
+import learn.petgallery.data.ImagePlaceholderRepository;
 import learn.petgallery.data.PetRepository;
+import learn.petgallery.models.ImagePlaceholder;
 import learn.petgallery.models.Pet;
+import learn.petgallery.models.PetListVersion;
+import learn.petgallery.models.PetPage;
+import learn.petgallery.models.PetSearchPage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import javax.validation.ConstraintViolation;
-import javax.validation.Validator;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PetService {
 
+    public static final String PET_CACHE = "pets";
+
     private final PetRepository petRepository;
+    private final ImagePlaceholderRepository placeholderRepository;
+    private final PetNameIndex nameIndex;
     private final Validator validator;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int batchChunkSize;
+    private final int maxBatchSize;
 
-    public PetService(PetRepository petRepository, Validator validator) {
+    public PetService(PetRepository petRepository,
+                      ImagePlaceholderRepository placeholderRepository,
+                      PetNameIndex nameIndex,
+                      Validator validator,
+                      @Value("${pet.page.default.size}") int defaultPageSize,
+                      @Value("${pet.page.max.size}") int maxPageSize,
+                      @Value("${pet.batch.chunk.size}") int batchChunkSize,
+                      @Value("${pet.batch.max.size}") int maxBatchSize) {
         this.petRepository = petRepository;
+        this.placeholderRepository = placeholderRepository;
+        this.nameIndex = nameIndex;
         this.validator = validator;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.batchChunkSize = batchChunkSize;
+        this.maxBatchSize = maxBatchSize;
     }
 
     public List<Pet> findAll() {
         return petRepository.findAll();
     }
 
+    public Result<PetPage> findPage(Integer after, Integer limit) {
+        Result<PetPage> result = new Result<>();
+        if (limit != null && limit < 1) {
+            result.addMessage("Limit must be at least 1.", ResultType.INVALID);
+            return result;
+        }
+        int size = Math.min(limit == null ? defaultPageSize : limit, maxPageSize);
+
+        // One extra row tells us whether there is a next page without a count query.
+        List<Pet> pets = petRepository.findByPetIdGreaterThanOrderByPetIdAsc(
+                after == null ? 0 : after, PageRequest.of(0, size + 1));
+
+        Integer next = null;
+        if (pets.size() > size) {
+            pets = pets.subList(0, size);
+            next = pets.get(size - 1).getPetId();
+        }
+        result.setPayload(new PetPage(pets, next));
+        return result;
+    }
+
+    // Hands every pet to the action in id order without ever holding the table: rows come through a
+    // read-only cursor and each pet is detached once the action is done with it. Holds one connection for
+    // as long as the action takes.
+    @Transactional(readOnly = true)
+    public long forEachPet(Consumer<Pet> action) {
+        long count = 0;
+        try (Stream<Pet> pets = petRepository.streamAll()) {
+            for (Iterator<Pet> iterator = pets.iterator(); iterator.hasNext(); count++) {
+                Pet pet = iterator.next();
+                action.accept(pet);
+                petRepository.detach(pet);
+            }
+        }
+        return count;
+    }
+
+    // Ranked by the in-memory name index; only the page itself is read from the database. A pet deleted
+    // while the index catches up is left out of the page rather than returned.
+    public Result<PetSearchPage> search(String query, Integer offset, Integer limit) {
+        Result<PetSearchPage> result = new Result<>();
+        if (query == null || query.isBlank()) {
+            result.addMessage("Search query is required.", ResultType.INVALID);
+        }
+        if (offset != null && offset < 0) {
+            result.addMessage("Offset must not be negative.", ResultType.INVALID);
+        }
+        if (limit != null && limit < 1) {
+            result.addMessage("Limit must be at least 1.", ResultType.INVALID);
+        }
+        if (!result.isSuccess()) {
+            return result;
+        }
+        int start = offset == null ? 0 : offset;
+        int size = Math.min(limit == null ? defaultPageSize : limit, maxPageSize);
+
+        PetNameIndex.Hits hits = nameIndex.search(query, start, size);
+        Map<Integer, Pet> found = new HashMap<>();
+        petRepository.findAllById(hits.petIds()).forEach(pet -> found.put(pet.getPetId(), pet));
+        List<Pet> pets = new ArrayList<>();
+        for (Integer petId : hits.petIds()) {
+            Pet pet = found.get(petId);
+            if (pet != null) {
+                pets.add(pet);
+            }
+        }
+
+        Integer next = start + size < hits.total() ? start + size : null;
+        result.setPayload(new PetSearchPage(pets, hits.total(), next));
+        return result;
+    }
+
+    // One aggregate row; cheap enough to run on every list request to decide whether it has changed.
+    public PetListVersion findListVersion() {
+        return petRepository.findListVersion();
+    }
+
+    @Cacheable(cacheNames = PET_CACHE, key = "#petId", unless = "#result == null")
     public Pet findById(int petId) {
         return petRepository.findById(petId).orElse(null);
     }
 
+    // Saving a pet that carries an existing id overwrites that row, so its cached copy goes too.
+    @CacheEvict(cacheNames = PET_CACHE, key = "#pet.petId", condition = "#pet != null")
     public Result<Pet> add(Pet pet) {
         Result<Pet> result = validate(pet);
         if (!result.isSuccess()) {
             return result;
         }
 
+        applyPlaceholders(List.of(pet));
         pet = petRepository.save(pet);
+        index(pet);
         result.setPayload(pet);
         return result;
     }
 
+    @CacheEvict(cacheNames = PET_CACHE, key = "#pet.petId", condition = "#pet != null")
     public Result<Void> update(Pet pet) {
         Result<Void> result = validate(pet);
         if (!result.isSuccess()) {
             return result;
         }
-        if (findById(pet.getPetId()) != null) {
-            petRepository.save(pet);
+        applyPlaceholders(List.of(pet));
+        // One UPDATE; the affected-row count tells a missing pet apart without a SELECT first.
+        if (petRepository.updatePet(pet) > 0) {
+            index(pet);
             return result;
         }
         result.addMessage(String.format("Pet id: '%s' not found.", pet.getPetId()), ResultType.NOT_FOUND);
         return result;
     }
 
+    // Optimistic update: the version check is part of the UPDATE, and only a miss pays for a second
+    // query to tell a changed pet from a missing one.
+    @CacheEvict(cacheNames = PET_CACHE, key = "#pet.petId", condition = "#pet != null")
+    public Result<Void> update(Pet pet, long expectedVersion) {
+        Result<Void> result = validate(pet);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        applyPlaceholders(List.of(pet));
+        if (petRepository.updatePetIfVersion(pet, expectedVersion) > 0) {
+            index(pet);
+            return result;
+        }
+        if (petRepository.existsById(pet.getPetId())) {
+            result.addMessage(String.format("Pet id: '%s' is no longer at version %s.", pet.getPetId(), expectedVersion),
+                    ResultType.PRECONDITION_FAILED);
+        } else {
+            result.addMessage(String.format("Pet id: '%s' not found.", pet.getPetId()), ResultType.NOT_FOUND);
+        }
+        return result;
+    }
+
+    @CacheEvict(cacheNames = PET_CACHE, key = "#petId")
     public Result<Void> deleteById(int petId) {
         Result<Void> result = new Result<>();
-        if (findById(petId) != null) {
-            petRepository.deleteById(petId);
+        if (petRepository.deletePet(petId) > 0) {
+            afterCommit(() -> nameIndex.remove(petId));
             return result;
         }
         result.addMessage(String.format("Pet id: '%s' not found.", petId), ResultType.NOT_FOUND);
         return result;
     }
 
-    private <T> Result<T> validate(Pet pet) {
+    // Batch writes run in one transaction and reach the database in chunks of batchChunkSize, each flushed
+    // as JDBC batches and then cleared so the persistence context stays small. Every item gets its own Result.
+    @Transactional
+    @CacheEvict(cacheNames = PET_CACHE, allEntries = true)
+    public Result<List<Result<Pet>>> addAll(List<Pet> pets) {
+        Result<List<Result<Pet>>> result = validateBatchSize(pets);
+        if (!result.isSuccess()) {
+            return result;
+        }
+
+        List<Result<Pet>> results = new ArrayList<>();
+        List<Result<Pet>> validResults = new ArrayList<>();
+        List<Pet> validPets = new ArrayList<>();
+        for (Pet pet : pets) {
+            Result<Pet> petResult = validate(pet);
+            results.add(petResult);
+            if (petResult.isSuccess()) {
+                validResults.add(petResult);
+                validPets.add(pet);
+            }
+        }
+
+        for (int start = 0; start < validPets.size(); start += batchChunkSize) {
+            int end = Math.min(start + batchChunkSize, validPets.size());
+            applyPlaceholders(validPets.subList(start, end));
+            List<Pet> saved = petRepository.saveAll(validPets.subList(start, end));
+            for (int i = 0; i < saved.size(); i++) {
+                validResults.get(start + i).setPayload(saved.get(i));
+                index(saved.get(i));
+            }
+            petRepository.flushAndClear();
+        }
+
+        result.setPayload(results);
+        return result;
+    }
+
+    @Transactional
+    @CacheEvict(cacheNames = PET_CACHE, allEntries = true)
+    public Result<List<Result<Void>>> updateAll(List<Pet> pets) {
+        Result<List<Result<Void>>> result = validateBatchSize(pets);
+        if (!result.isSuccess()) {
+            return result;
+        }
+
+        List<Result<Void>> results = new ArrayList<>();
+        for (int start = 0; start < pets.size(); start += batchChunkSize) {
+            List<Pet> chunk = pets.subList(start, Math.min(start + batchChunkSize, pets.size()));
+
+            // One SELECT loads the chunk; the changes are then flushed as batched UPDATEs.
+            Map<Integer, Pet> existing = new HashMap<>();
+            petRepository.findAllById(chunk.stream()
+                    .filter(Objects::nonNull)
+                    .map(Pet::getPetId)
+                    .collect(Collectors.toList()))
+                    .forEach(pet -> existing.put(pet.getPetId(), pet));
+            applyPlaceholders(chunk);
+
+            for (Pet pet : chunk) {
+                Result<Void> petResult = validate(pet);
+                results.add(petResult);
+                if (!petResult.isSuccess()) {
+                    continue;
+                }
+                Pet managed = existing.get(pet.getPetId());
+                if (managed == null) {
+                    petResult.addMessage(String.format("Pet id: '%s' not found.", pet.getPetId()), ResultType.NOT_FOUND);
+                    continue;
+                }
+                managed.setName(pet.getName());
+                managed.setImageUrl(pet.getImageUrl());
+                managed.setImageVariants(pet.getImageVariants());
+                managed.setDominantColor(pet.getDominantColor());
+                managed.setBlurHash(pet.getBlurHash());
+                index(pet);
+            }
+            petRepository.flushAndClear();
+        }
+
+        result.setPayload(results);
+        return result;
+    }
+
+    @Transactional
+    @CacheEvict(cacheNames = PET_CACHE, allEntries = true)
+    public Result<List<Result<Void>>> deleteAllById(List<Integer> petIds) {
+        Result<List<Result<Void>>> result = validateBatchSize(petIds);
+        if (!result.isSuccess()) {
+            return result;
+        }
+
+        List<Result<Void>> results = new ArrayList<>();
+        for (int start = 0; start < petIds.size(); start += batchChunkSize) {
+            List<Integer> chunk = petIds.subList(start, Math.min(start + batchChunkSize, petIds.size()));
+
+            // One SELECT of ids to report NOT_FOUND per item, then one DELETE for the whole chunk.
+            Set<Integer> existing = new HashSet<>(petRepository.findExistingIds(chunk));
+            if (!existing.isEmpty()) {
+                petRepository.deleteAllByIdInBatch(existing);
+                afterCommit(() -> existing.forEach(nameIndex::remove));
+            }
+
+            for (Integer petId : chunk) {
+                Result<Void> petResult = new Result<>();
+                if (!existing.contains(petId)) {
+                    petResult.addMessage(String.format("Pet id: '%s' not found.", petId), ResultType.NOT_FOUND);
+                }
+                results.add(petResult);
+            }
+        }
+
+        result.setPayload(results);
+        return result;
+    }
+
+    // Looks up the placeholder of every pet's image in one query, by the content hash in its URL. A pet whose
+    // image has none, or wasn't uploaded here, is left without one; that costs no query at all.
+    private void applyPlaceholders(List<Pet> pets) {
+        Map<String, List<Pet>> byHash = new HashMap<>();
+        for (Pet pet : pets) {
+            if (pet == null) {
+                continue;
+            }
+            pet.setDominantColor(null);
+            pet.setBlurHash(null);
+            String hash = FileService.findHash(pet.getImageUrl());
+            if (hash != null) {
+                byHash.computeIfAbsent(hash, ignored -> new ArrayList<>()).add(pet);
+            }
+        }
+        if (byHash.isEmpty()) {
+            return;
+        }
+        for (ImagePlaceholder placeholder : placeholderRepository.findAllById(byHash.keySet())) {
+            for (Pet pet : byHash.get(placeholder.getImageHash())) {
+                pet.setDominantColor(placeholder.getDominantColor());
+                pet.setBlurHash(placeholder.getBlurHash());
+            }
+        }
+    }
+
+    private void index(Pet pet) {
+        int petId = pet.getPetId();
+        String name = pet.getName();
+        afterCommit(() -> nameIndex.put(petId, name));
+    }
+
+    // Inside a transaction the index only changes once it commits, so a rollback never leaves it ahead of
+    // the table.
+    private void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private <T> Result<T> validateBatchSize(List<?> items) {
+        Result<T> result = new Result<>();
+        if (items == null || items.isEmpty()) {
+            result.addMessage("Batch cannot be empty.", ResultType.INVALID);
+        } else if (items.size() > maxBatchSize) {
+            result.addMessage(String.format("Batch cannot have more than %s items.", maxBatchSize), ResultType.INVALID);
+        }
+        return result;
+    }
+
+    // Package-private for PetServiceBenchmark.
+    <T> Result<T> validate(Pet pet) {
         Result<T> result = new Result<>();
 
         if (pet == null) {
@@ -3,5 +3,10 @@ package learn.petgallery.domain;
 public enum ResultType {
     SUCCESS,
     NOT_FOUND,
-    INVALID
+    INVALID,
+    BUSY,
+    PRECONDITION_FAILED,
+    CONFLICT,
+    TOO_LARGE,
+    UNSUPPORTED
 }
@@ -0,0 +1,130 @@
+package learn.petgallery.domain;
+
+import learn.petgallery.models.UploadJob;
+import learn.petgallery.models.UploadJobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Service
+public class UploadJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadJobService.class);
+
+    private final FileService fileService;
+    private final ImageUploadValidator validator;
+    private final ExecutorService executor;
+    private final Path spoolDirectory;
+    private final Duration retention;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    public UploadJobService(FileService fileService,
+                            ImageUploadValidator validator,
+                            @Qualifier("uploadJobExecutor") ExecutorService executor,
+                            @Value("${upload.spool.dir}") String spoolDirectory,
+                            @Value("${upload.job.retention.minutes}") long retentionMinutes) throws IOException {
+        this.fileService = fileService;
+        this.validator = validator;
+        this.executor = executor;
+        this.spoolDirectory = Files.createDirectories(Path.of(spoolDirectory));
+        this.retention = Duration.ofMinutes(retentionMinutes);
+    }
+
+    public Result<UploadJob> submit(MultipartFile file) {
+        Result<UploadJob> result = new Result<>();
+        // Rejected uploads never take a queue slot or a spool write.
+        validator.validate(file, result);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        // Cheap early check so a full queue doesn't cost a spool write first.
+        if (isQueueFull()) {
+            result.addMessage("Upload queue is full. Try again later.", ResultType.BUSY);
+            return result;
+        }
+
+        UploadJob job = new UploadJob(UUID.randomUUID().toString(), file.getOriginalFilename());
+        Path spooled = spoolDirectory.resolve(job.getJobId());
+        try {
+            file.transferTo(spooled);
+        } catch (IOException ex) {
+            result.addMessage("File not uploaded.", ResultType.INVALID);
+            return result;
+        }
+
+        SpooledMultipartFile spooledFile = new SpooledMultipartFile(spooled, file.getOriginalFilename(), file.getContentType());
+        jobs.put(job.getJobId(), job);
+        try {
+            executor.execute(() -> process(job, spooledFile, spooled));
+        } catch (RejectedExecutionException ex) {
+            jobs.remove(job.getJobId());
+            deleteQuietly(spooled);
+            result.addMessage("Upload queue is full. Try again later.", ResultType.BUSY);
+            return result;
+        }
+
+        result.setPayload(job);
+        return result;
+    }
+
+    public UploadJob findById(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    @Scheduled(fixedDelayString = "${upload.job.cleanup.interval.ms}")
+    public void removeFinishedJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+    }
+
+    private void process(UploadJob job, SpooledMultipartFile file, Path spooled) {
+        job.setStatus(UploadJobStatus.PROCESSING);
+        UploadJobStatus status = UploadJobStatus.FAILED;
+        try {
+            Result<Map<String, String>> result = fileService.uploadFile(file);
+            if (result.isSuccess()) {
+                job.setImageUrls(result.getPayload());
+                status = UploadJobStatus.COMPLETE;
+            } else {
+                job.setMessages(result.getMessages());
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Upload job {} failed.", job.getJobId(), ex);
+            job.setMessages(List.of("File not uploaded."));
+        } finally {
+            deleteQuietly(spooled);
+            job.setFinishedAt(Instant.now());
+            job.setStatus(status);
+        }
+    }
+
+    private boolean isQueueFull() {
+        return executor instanceof ThreadPoolExecutor
+                && ((ThreadPoolExecutor) executor).getQueue().remainingCapacity() == 0;
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // The spool is scratch space; a leftover file is harmless.
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package learn.petgallery.domain;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// A token bucket per client: up to capacity uploads in a burst, then perMinute on average. Buckets live in
+// a bounded Caffeine cache and expire once they would have refilled anyway, so an idle client costs nothing
+// and a forgotten one comes back to a full bucket. A rate of 0 turns limiting off.
+@Component
+public class UploadRateLimiter {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private final Ticker ticker;
+    private final Cache<String, TokenBucket> buckets;
+    private final Counter admitted;
+    private final Counter throttled;
+
+    @Autowired
+    public UploadRateLimiter(@Value("${upload.rate.capacity}") int capacity,
+                             @Value("${upload.rate.per.minute}") double perMinute,
+                             @Value("${upload.rate.max.clients}") long maxClients,
+                             MeterRegistry meterRegistry) {
+        this(capacity, perMinute, maxClients, meterRegistry, Ticker.systemTicker());
+    }
+
+    UploadRateLimiter(int capacity, double perMinute, long maxClients, MeterRegistry meterRegistry, Ticker ticker) {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = perMinute / TimeUnit.MINUTES.toNanos(1);
+        this.ticker = ticker;
+        this.buckets = perMinute <= 0 ? null : Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofNanos((long) (this.capacity / tokensPerNano)))
+                .ticker(ticker)
+                .build();
+        this.admitted = admissionCounter(meterRegistry, "rate", "admitted");
+        this.throttled = admissionCounter(meterRegistry, "rate", "throttled");
+        if (buckets != null) {
+            Gauge.builder("upload.rate.clients", buckets, Cache::estimatedSize)
+                    .description("Clients with a partly used upload allowance.")
+                    .register(meterRegistry);
+        }
+    }
+
+    // Every limiter counts what it let through and what it turned away, tagged with its name.
+    static Counter admissionCounter(MeterRegistry meterRegistry, String limiter, String outcome) {
+        return Counter.builder("upload.admission")
+                .description("Uploads admitted, queued or throttled by each limiter.")
+                .tag("limiter", limiter)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // Takes a token from the client's bucket. Returns 0 when there was one, otherwise the nanoseconds
+    // until there will be.
+    public long tryAcquire(String client) {
+        if (buckets == null) {
+            return 0;
+        }
+        long now = ticker.read();
+        long wait = buckets.get(client, ignored -> new TokenBucket(now)).take(now);
+        (wait == 0 ? admitted : throttled).increment();
+        return wait;
+    }
+
+    private final class TokenBucket {
+
+        private double tokens = capacity;
+        private long refilledAt;
+
+        private TokenBucket(long now) {
+            this.refilledAt = now;
+        }
+
+        private synchronized long take(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package learn.petgallery.domain;
+
+import learn.petgallery.models.UploadSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resumable uploads for clients on connections that drop. A session is opened with the file's size and
+// content type, its bytes arrive as chunks at any offset and in any order, and completing it runs the
+// assembled file through the same pipeline as POST /api/file. A retry only resends the ranges that are
+// missing. Sessions are held in memory, so every chunk has to reach the instance that opened the session.
+@Service
+public class UploadSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    private static final String SUFFIX = ".part";
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final FileService fileService;
+    private final ImageUploadValidator validator;
+    private final Path directory;
+    private final Duration ttl;
+    private final int maxSessions;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public UploadSessionService(FileService fileService,
+                                ImageUploadValidator validator,
+                                @Value("${upload.session.dir}") String directory,
+                                @Value("${upload.session.ttl.minutes}") long ttlMinutes,
+                                @Value("${upload.session.max.active}") int maxSessions) throws IOException {
+        this.fileService = fileService;
+        this.validator = validator;
+        this.directory = Files.createDirectories(Path.of(directory));
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.maxSessions = maxSessions;
+        deleteLeftovers();
+    }
+
+    // The declared size and content type are checked here, so a file that would be refused never sends a chunk.
+    // Its bytes are checked like any other upload when the session is completed.
+    public Result<UploadSession> open(String filename, String contentType, long size) {
+        Result<UploadSession> result = new Result<>();
+        if (size <= 0) {
+            result.addMessage("Size must be greater than zero.", ResultType.INVALID);
+            return result;
+        }
+        if (validator.validateDeclared(contentType, size, result) == null) {
+            return result;
+        }
+        // Caps the disk held by sessions at roughly max sessions x max upload size.
+        if (sessions.size() >= maxSessions) {
+            result.addMessage("Too many uploads in progress. Try again later.", ResultType.BUSY);
+            return result;
+        }
+
+        UploadSession session = new UploadSession(UUID.randomUUID().toString(), filename, contentType, size, expiry());
+        try {
+            Files.createFile(path(session));
+        } catch (IOException ex) {
+            logger.warn("Upload session for '{}' could not be opened.", filename, ex);
+            result.addMessage("Upload session could not be opened.", ResultType.INVALID);
+            return result;
+        }
+        sessions.put(session.getSessionId(), session);
+        result.setPayload(session);
+        return result;
+    }
+
+    public UploadSession findById(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    // Writes the body into the session's file at offset. Whatever arrived before a dropped connection is kept
+    // and counted as received, so the retry can start from there.
+    public Result<UploadSession> write(String sessionId, long offset, InputStream body) {
+        Result<UploadSession> result = new Result<>();
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            result.addMessage("Upload session not found.", ResultType.NOT_FOUND);
+            return result;
+        }
+        long size = session.getSize();
+        if (offset < 0 || offset >= size) {
+            result.addMessage(String.format("Offset must be between 0 and %d.", size - 1), ResultType.INVALID);
+            return result;
+        }
+        if (!session.beginWrite()) {
+            result.addMessage("Upload session is being completed.", ResultType.CONFLICT);
+            return result;
+        }
+
+        long position = offset;
+        try (FileChannel channel = FileChannel.open(path(session), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+            while (position < size) {
+                int count = body.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), size - position));
+                if (count < 0) {
+                    break;
+                }
+                buffer.clear().limit(count);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (position == size && body.read() != -1) {
+                result.addMessage(String.format("Chunk runs past the end of the %d byte file.", size),
+                        ResultType.INVALID);
+            }
+        } catch (IOException ex) {
+            result.addMessage(String.format("Chunk was cut short after %d bytes.", position - offset),
+                    ResultType.INVALID);
+        } finally {
+            session.endWrite(offset, position);
+            session.setExpiresAt(expiry());
+        }
+
+        if (result.isSuccess()) {
+            result.setPayload(session);
+        }
+        return result;
+    }
+
+    // On success the session is gone. On failure it stays open until it expires, so a store outage doesn't
+    // cost the client its upload: completing can simply be retried.
+    public CompletableFuture<Result<Map<String, String>>> complete(String sessionId) {
+        Result<Map<String, String>> result = new Result<>();
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            result.addMessage("Upload session not found.", ResultType.NOT_FOUND);
+            return CompletableFuture.completedFuture(result);
+        }
+        if (!session.close()) {
+            result.addMessage("Upload session is busy.", ResultType.CONFLICT);
+            return CompletableFuture.completedFuture(result);
+        }
+        if (!session.isComplete()) {
+            session.reopen();
+            result.addMessage(String.format("Upload has %d of %d bytes.", session.getReceivedBytes(), session.getSize()),
+                    ResultType.INVALID);
+            return CompletableFuture.completedFuture(result);
+        }
+
+        SpooledMultipartFile file = new SpooledMultipartFile(path(session), session.getFilename(),
+                session.getContentType());
+        CompletableFuture<Result<Map<String, String>>> uploaded;
+        try {
+            uploaded = fileService.uploadFileAsync(file);
+        } catch (RuntimeException ex) {
+            session.reopen();
+            throw ex;
+        }
+        return uploaded.whenComplete((stored, ex) -> {
+            if (ex == null && stored.isSuccess()) {
+                delete(session);
+            } else {
+                session.reopen();
+            }
+        });
+    }
+
+    public Result<Void> abort(String sessionId) {
+        Result<Void> result = new Result<>();
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            result.addMessage("Upload session not found.", ResultType.NOT_FOUND);
+        } else if (!session.close()) {
+            result.addMessage("Upload session is busy.", ResultType.CONFLICT);
+        } else {
+            delete(session);
+        }
+        return result;
+    }
+
+    // Abandoned sessions: every chunk pushes the expiry out again, so only idle ones are removed.
+    @Scheduled(fixedDelayString = "${upload.session.cleanup.interval.ms}")
+    public void removeExpiredSessions() {
+        Instant now = Instant.now();
+        for (UploadSession session : sessions.values()) {
+            if (session.getExpiresAt().isBefore(now) && session.close()) {
+                delete(session);
+            }
+        }
+    }
+
+    private Instant expiry() {
+        return Instant.now().plus(ttl);
+    }
+
+    private Path path(UploadSession session) {
+        return directory.resolve(session.getSessionId() + SUFFIX);
+    }
+
+    private void delete(UploadSession session) {
+        sessions.remove(session.getSessionId());
+        deleteQuietly(path(session));
+    }
+
+    // Sessions don't survive a restart, so neither do their files.
+    private void deleteLeftovers() throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path leftover : leftovers) {
+                deleteQuietly(leftover);
+            }
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            logger.warn("Could not delete '{}'.", path, ex);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+// What a client can paint before an uploaded image loads. Kept per upload, not per pet, so any pet
+// pointing at the image picks it up.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "image_placeholder")
+public class ImagePlaceholder {
+
+    // SHA-256 of the uploaded bytes, as in the stored file names.
+    @Id
+    @Column(name = "image_hash", length = 64)
+    private String imageHash;
+
+    // "#rrggbb"
+    @Column(name = "dominant_color", length = 7)
+    private String dominantColor;
+
+    @Column(name = "blur_hash", length = 64)
+    private String blurHash;
+}
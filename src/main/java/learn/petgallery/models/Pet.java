@@ -1,24 +1,39 @@
 package learn.petgallery.models;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
 import org.hibernate.validator.constraints.URL;
 
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
-import javax.persistence.Id;
-import javax.validation.constraints.NotBlank;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import jakarta.validation.constraints.NotBlank;
+import java.time.Instant;
+import java.util.Map;
 
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
+// Covers the list ETag aggregate (see PetRepository.findListVersion) so it never reads the table rows.
+@Table(indexes = @Index(name = "pet_version_updated_at", columnList = "version, updated_at"))
 public class Pet {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // IDENTITY makes Hibernate insert row by row to read back each key. A pooled sequence hands out
+    // ids in blocks, so batched inserts stay batched. On MySQL it is backed by the pet_sequence table.
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pet_sequence")
+    @SequenceGenerator(name = "pet_sequence", sequenceName = "pet_sequence", allocationSize = 50)
     private int petId;
 
     @NotBlank(message = "Pet name is required.")
@@ -27,4 +42,38 @@ public class Pet {
     @URL(message = "Pet image URL must be a URL.")
     @NotBlank(message = "Pet image URL is required.")
     private String imageUrl;
+
+    // Variant name (e.g. "thumbnail") to URL, as returned by POST /api/file.
+    @Convert(converter = ImageVariantsConverter.class)
+    @Column(name = "image_variants", length = 2048)
+    private Map<String, String> imageVariants;
+
+    // Copied from the image's ImagePlaceholder whenever the pet is saved, so a listing can paint something
+    // before any image loads. Clients can't set them; null when the image wasn't uploaded here.
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Column(name = "dominant_color", length = 7)
+    private String dominantColor;
+
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Column(name = "blur_hash", length = 64)
+    private String blurHash;
+
+    // Bumped on every write; it is the pet's ETag.
+    @Version
+    private long version;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    public Pet(int petId, String name, String imageUrl) {
+        this.petId = petId;
+        this.name = name;
+        this.imageUrl = imageUrl;
+    }
+
+    public Pet(int petId, String name, String imageUrl, Map<String, String> imageVariants) {
+        this(petId, name, imageUrl);
+        this.imageVariants = imageVariants;
+    }
 }
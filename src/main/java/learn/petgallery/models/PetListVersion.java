@@ -0,0 +1,21 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// A fingerprint of the whole pet table. Any insert, update or delete changes at least one field.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PetListVersion {
+
+    private long count;
+
+    // The aggregates are null while the table is empty.
+    private Integer maxPetId;
+    private Long versionSum;
+    private Instant lastUpdatedAt;
+}
@@ -0,0 +1,15 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Just what the name index needs from a pet row.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PetName {
+
+    private int petId;
+    private String name;
+}
@@ -0,0 +1,18 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PetPage {
+
+    private List<Pet> pets;
+
+    // Pass as "after" to get the next page; null on the last page.
+    private Integer next;
+}
@@ -0,0 +1,21 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PetSearchPage {
+
+    private List<Pet> pets;
+
+    // Pets matching the query across all pages.
+    private int total;
+
+    // Pass as "offset" to get the next page; null on the last page.
+    private Integer next;
+}
@@ -0,0 +1,17 @@
+package learn.petgallery.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+public class StoredImage {
+
+    // Variant name (e.g. "thumbnail") to URL; this is what POST /api/file returns.
+    private Map<String, String> urls;
+
+    // Null when it couldn't be computed; the upload still counts.
+    private ImagePlaceholder placeholder;
+}
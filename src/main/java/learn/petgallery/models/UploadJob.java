@@ -0,0 +1,33 @@
+package learn.petgallery.models;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+public class UploadJob {
+
+    private final String jobId;
+    private final String filename;
+    private final Instant createdAt = Instant.now();
+
+    // Written by the worker thread, read by status requests.
+    private volatile UploadJobStatus status = UploadJobStatus.QUEUED;
+    private volatile Map<String, String> imageUrls;
+    private volatile List<String> messages = new ArrayList<>();
+    private volatile Instant finishedAt;
+
+    public UploadJob(String jobId, String filename) {
+        this.jobId = jobId;
+        this.filename = filename;
+    }
+
+    public boolean isFinished() {
+        return status == UploadJobStatus.COMPLETE || status == UploadJobStatus.FAILED;
+    }
+}
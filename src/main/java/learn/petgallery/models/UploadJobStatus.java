@@ -0,0 +1,8 @@
+package learn.petgallery.models;
+
+public enum UploadJobStatus {
+    QUEUED,
+    PROCESSING,
+    COMPLETE,
+    FAILED
+}
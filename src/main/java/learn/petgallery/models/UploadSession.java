@@ -0,0 +1,100 @@
+package learn.petgallery.models;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+public class UploadSession {
+
+    private final String sessionId;
+    private final String filename;
+    private final String contentType;
+    private final long size;
+    private final Instant createdAt = Instant.now();
+    @Setter
+    private volatile Instant expiresAt;
+
+    // Received bytes as sorted, non-overlapping [start, end) ranges. Chunks may arrive in any order,
+    // twice, or cut short; adjacent and overlapping ones are merged.
+    @Getter(AccessLevel.NONE)
+    private final List<long[]> received = new ArrayList<>();
+
+    @Getter(AccessLevel.NONE)
+    private int writers;
+    @Getter(AccessLevel.NONE)
+    private boolean closed;
+
+    public UploadSession(String sessionId, String filename, String contentType, long size, Instant expiresAt) {
+        this.sessionId = sessionId;
+        this.filename = filename;
+        this.contentType = contentType;
+        this.size = size;
+        this.expiresAt = expiresAt;
+    }
+
+    public synchronized List<long[]> getReceived() {
+        List<long[]> copy = new ArrayList<>(received.size());
+        for (long[] range : received) {
+            copy.add(range.clone());
+        }
+        return copy;
+    }
+
+    public synchronized long getReceivedBytes() {
+        long total = 0;
+        for (long[] range : received) {
+            total += range[1] - range[0];
+        }
+        return total;
+    }
+
+    public synchronized boolean isComplete() {
+        return received.size() == 1 && received.get(0)[0] == 0 && received.get(0)[1] == size;
+    }
+
+    // A chunk may only be written between beginWrite and endWrite, and only while the session is open.
+    public synchronized boolean beginWrite() {
+        if (closed) {
+            return false;
+        }
+        writers++;
+        return true;
+    }
+
+    public synchronized void endWrite(long start, long end) {
+        writers--;
+        if (start >= end) {
+            return;
+        }
+        int i = 0;
+        while (i < received.size() && received.get(i)[1] < start) {
+            i++;
+        }
+        while (i < received.size() && received.get(i)[0] <= end) {
+            long[] merged = received.remove(i);
+            start = Math.min(start, merged[0]);
+            end = Math.max(end, merged[1]);
+        }
+        received.add(i, new long[]{start, end});
+    }
+
+    // Completing, aborting and expiring all close the session first, which fails while a chunk is still
+    // being written or after someone else closed it.
+    public synchronized boolean close() {
+        if (closed || writers > 0) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    // Lets a session whose completion failed take chunks and be completed again.
+    public synchronized void reopen() {
+        closed = false;
+    }
+}
@@ -0,0 +1,24 @@
+package learn.petgallery;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "spring.threads.virtual.enabled=true")
+class S3ConfigTest {
+
+    @Autowired
+    @Qualifier("s3PartUploadExecutor")
+    ExecutorService partUploadExecutor;
+
+    @Test
+    void shouldUploadPartsOnVirtualThreadsWhenEnabled() throws Exception {
+        assertTrue(partUploadExecutor.submit(() -> Thread.currentThread().isVirtual()).get());
+    }
+}
@@ -0,0 +1,468 @@
+package learn.petgallery.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.data.FileRepository;
+import learn.petgallery.domain.FileService;
+import learn.petgallery.domain.ImageDecodeLimiter;
+import learn.petgallery.domain.UploadRateLimiter;
+import learn.petgallery.domain.UploadSessionService;
+import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.StoredImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FileControllerTest {
+
+    @MockBean
+    FileRepository fileRepository;
+
+    @MockBean
+    UploadRateLimiter rateLimiter;
+
+    @SpyBean
+    ImageDecodeLimiter decodeLimiter;
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    UploadSessionService sessionService;
+
+    @BeforeEach
+    void clearUploadIndex() {
+        cacheManager.getCache(FileService.UPLOAD_INDEX).clear();
+    }
+
+    @Test
+    void shouldUploadAndReturnHttp201() throws Exception {
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(stored()));
+
+        upload(file())
+                .andExpect(status().isCreated())
+                .andExpect(content().json(new ObjectMapper().writeValueAsString(urls())));
+    }
+
+    @Test
+    void shouldReleaseRequestUntilUploadCompletes() throws Exception {
+        CompletableFuture<StoredImage> stored = new CompletableFuture<>();
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(stored);
+
+        MvcResult started = mvc.perform(multipart("/api/file").file(file()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertFalse(started.getResponse().isCommitted());
+
+        stored.complete(stored());
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void shouldReturn400WhenUploadFails() throws Exception {
+        when(fileRepository.uploadAsync(any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new FileUploadException("denied")));
+
+        upload(file())
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldReturn415ForUnsupportedContentType() throws Exception {
+        upload(new MockMultipartFile("file", "cat.txt", "text/plain", png(1, 1)))
+                .andExpect(status().isUnsupportedMediaType());
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldReturn415WhenContentDoesNotMatchType() throws Exception {
+        upload(new MockMultipartFile("file", "cat.png", "image/png", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0}))
+                .andExpect(status().isUnsupportedMediaType())
+                .andExpect(jsonPath("$[0]").value("File content is not a PNG image."));
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldReturn413ForTooManyBytes() throws Exception {
+        byte[] bytes = Arrays.copyOf(png(1, 1), 1024 * 1024 + 1);
+
+        upload(new MockMultipartFile("file", "cat.png", "image/png", bytes))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldReturn413ForTooManyPixelsWithoutDecoding() throws Exception {
+        // A few dozen bytes declaring 100 million pixels.
+        upload(new MockMultipartFile("file", "bomb.png", "image/png", png(10_000, 10_000)))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(jsonPath("$[0]").value("Image is 10000x10000; the limit is 4000000 pixels."));
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldReturn400ForUnreadableHeader() throws Exception {
+        byte[] truncated = Arrays.copyOf(png(1, 1), 12);
+
+        upload(new MockMultipartFile("file", "cat.png", "image/png", truncated))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldRejectInvalidAsyncUploadBeforeQueueing() throws Exception {
+        mvc.perform(multipart("/api/file/async").file(new MockMultipartFile("file", "bomb.png", "image/png", png(10_000, 10_000))))
+                .andExpect(status().isPayloadTooLarge());
+
+        verify(fileRepository, never()).upload(any(), any());
+    }
+
+    @Test
+    void shouldStoreUnderContentHash() throws Exception {
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(stored()));
+
+        upload(file())
+                .andExpect(status().isCreated());
+
+        // SHA-256 of png(1, 1); the extension is kept and lowercased.
+        verify(fileRepository).uploadAsync(any(),
+                eq("cb9ee84a55dfe3cb7c73189dfce37bc0ccb2dd549f8d83093eff135d12614191.png"));
+    }
+
+    @Test
+    void shouldAnswerRepeatUploadFromIndex() throws Exception {
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(stored()));
+
+        upload(file())
+                .andExpect(status().isCreated());
+        upload(new MockMultipartFile("file", "copy-of-cat.PNG", "image/png", png(1, 1)))
+                .andExpect(status().isCreated())
+                .andExpect(content().json(new ObjectMapper().writeValueAsString(urls())));
+
+        verify(fileRepository, times(1)).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldAcceptAsyncUploadAndReportCompletedJob() throws Exception {
+        when(fileRepository.upload(any(), any())).thenReturn(stored());
+
+        String body = mvc.perform(multipart("/api/file/async").file(file()))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andReturn().getResponse().getContentAsString();
+        String jobId = new ObjectMapper().readTree(body).get("jobId").asText();
+
+        JsonNode job = awaitFinished(jobId);
+
+        assertEquals("COMPLETE", job.get("status").asText());
+        assertEquals("https://example.com/full/cat.png", job.get("imageUrls").get("full").asText());
+    }
+
+    @Test
+    void shouldRejectAsyncUploadWithHttp429WhenQueueIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(fileRepository.upload(any(), any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return urls();
+        });
+
+        try {
+            // One job occupies the single worker, the next fills the one-slot queue.
+            mvc.perform(multipart("/api/file/async").file(file())).andExpect(status().isAccepted());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            mvc.perform(multipart("/api/file/async").file(file())).andExpect(status().isAccepted());
+
+            mvc.perform(multipart("/api/file/async").file(file()))
+                    .andExpect(status().isTooManyRequests());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void shouldReturn429WithRetryAfterWhenRateLimited() throws Exception {
+        when(rateLimiter.tryAcquire(any())).thenReturn(TimeUnit.MILLISECONDS.toNanos(1500));
+
+        mvc.perform(multipart("/api/file").file(file()))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"))
+                .andExpect(jsonPath("$[0]").value("Too many uploads. Try again in 2 seconds."));
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldRateLimitKnownApiKeyApartFromAddress() throws Exception {
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(stored()));
+
+        // Through to the async dispatch, which must not spend a second token.
+        MvcResult started = mvc.perform(multipart("/api/file").file(file()).header("X-Api-Key", "known-key"))
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isCreated());
+        mvc.perform(multipart("/api/file").file(file()).header("X-Api-Key", "made-up-key"));
+
+        verify(rateLimiter).tryAcquire("key:known-key");
+        verify(rateLimiter).tryAcquire("address:127.0.0.1");
+    }
+
+    @Test
+    void shouldNotRateLimitChunksOrPolling() throws Exception {
+        byte[] png = png(1, 1);
+        String sessionId = openSession(png.length);
+        putChunk(sessionId, 0, png);
+        mvc.perform(get("/api/file/session/" + sessionId));
+
+        // Opening the session was the one request that spent a token.
+        verify(rateLimiter, times(1)).tryAcquire(any());
+    }
+
+    @Test
+    void shouldReturn429WithRetryAfterWhenDecodesAreTaken() throws Exception {
+        doReturn(false).when(decodeLimiter).tryAcquire();
+
+        upload(file())
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "2"));
+
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldReturn404ForMissingJob() throws Exception {
+        mvc.perform(get("/api/file/job/missing"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldCompleteChunkedUploadSentOutOfOrder() throws Exception {
+        when(fileRepository.uploadAsync(any(), any())).thenReturn(CompletableFuture.completedFuture(stored()));
+        byte[] png = png(1, 1);
+        String sessionId = openSession(png.length);
+
+        putChunk(sessionId, 20, Arrays.copyOfRange(png, 20, png.length))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received[0][0]").value(20));
+        putChunk(sessionId, 0, Arrays.copyOfRange(png, 0, 20))
+                .andExpect(status().isOk());
+
+        mvc.perform(get("/api/file/session/" + sessionId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.received.length()").value(1))
+                .andExpect(jsonPath("$.received[0][1]").value(png.length))
+                .andExpect(jsonPath("$.complete").value(true));
+
+        completeSession(sessionId)
+                .andExpect(status().isCreated())
+                .andExpect(content().json(new ObjectMapper().writeValueAsString(urls())));
+        // Stored under the same name as a single-request upload of the same bytes.
+        verify(fileRepository).uploadAsync(any(),
+                eq("cb9ee84a55dfe3cb7c73189dfce37bc0ccb2dd549f8d83093eff135d12614191.png"));
+        mvc.perform(get("/api/file/session/" + sessionId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldNotCompleteSessionWithMissingBytes() throws Exception {
+        byte[] png = png(1, 1);
+        String sessionId = openSession(png.length);
+        putChunk(sessionId, 0, Arrays.copyOfRange(png, 0, 10));
+
+        completeSession(sessionId)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$[0]").value(String.format("Upload has 10 of %d bytes.", png.length)));
+
+        // Still open: the rest can be sent and the session completed after all.
+        putChunk(sessionId, 10, Arrays.copyOfRange(png, 10, png.length))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.complete").value(true));
+        verify(fileRepository, never()).uploadAsync(any(), any());
+    }
+
+    @Test
+    void shouldKeepSessionOpenWhenStoreFails() throws Exception {
+        when(fileRepository.uploadAsync(any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new FileUploadException("denied")))
+                .thenReturn(CompletableFuture.completedFuture(stored()));
+        byte[] png = png(1, 1);
+        String sessionId = openSession(png.length);
+        putChunk(sessionId, 0, png);
+
+        completeSession(sessionId)
+                .andExpect(status().isBadRequest());
+        completeSession(sessionId)
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    void shouldRejectChunkPastEndOfFile() throws Exception {
+        String sessionId = openSession(10);
+
+        putChunk(sessionId, 5, new byte[6])
+                .andExpect(status().isBadRequest());
+        putChunk(sessionId, 10, new byte[1])
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldNotOpenSessionForUnsupportedOrOversizedFile() throws Exception {
+        mvc.perform(post("/api/file/session")
+                        .param("filename", "cat.txt").param("contentType", "text/plain").param("size", "10"))
+                .andExpect(status().isUnsupportedMediaType());
+        mvc.perform(post("/api/file/session")
+                        .param("filename", "cat.png").param("contentType", "image/png").param("size", "1048577"))
+                .andExpect(status().isPayloadTooLarge());
+        mvc.perform(post("/api/file/session")
+                        .param("filename", "cat.png").param("contentType", "image/png").param("size", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldAbortSession() throws Exception {
+        String sessionId = openSession(10);
+
+        mvc.perform(delete("/api/file/session/" + sessionId))
+                .andExpect(status().isNoContent());
+        putChunk(sessionId, 0, new byte[10])
+                .andExpect(status().isNotFound());
+        mvc.perform(delete("/api/file/session/" + sessionId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldRemoveExpiredSessions() throws Exception {
+        String sessionId = openSession(10);
+        sessionService.findById(sessionId).setExpiresAt(Instant.now().minusSeconds(1));
+
+        sessionService.removeExpiredSessions();
+
+        mvc.perform(get("/api/file/session/" + sessionId))
+                .andExpect(status().isNotFound());
+    }
+
+    private ResultActions upload(MockMultipartFile file) throws Exception {
+        MvcResult started = mvc.perform(multipart("/api/file").file(file))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(started));
+    }
+
+    private JsonNode awaitFinished(String jobId) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            String body = mvc.perform(get("/api/file/job/" + jobId))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            JsonNode job = objectMapper.readTree(body);
+            if (job.get("finished").asBoolean()) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        return fail("Job did not finish.");
+    }
+
+    private String openSession(long size) throws Exception {
+        String body = mvc.perform(post("/api/file/session")
+                        .param("filename", "cat.png").param("contentType", "image/png").param("size", String.valueOf(size)))
+                .andExpect(status().isCreated())
+                .andExpect(header().exists("Location"))
+                .andReturn().getResponse().getContentAsString();
+        return new ObjectMapper().readTree(body).get("sessionId").asText();
+    }
+
+    private ResultActions putChunk(String sessionId, long offset, byte[] bytes) throws Exception {
+        return mvc.perform(put("/api/file/session/" + sessionId)
+                .param("offset", String.valueOf(offset))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(bytes));
+    }
+
+    private ResultActions completeSession(String sessionId) throws Exception {
+        MvcResult started = mvc.perform(post("/api/file/session/" + sessionId + "/complete"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mvc.perform(asyncDispatch(started));
+    }
+
+    private Map<String, String> urls() {
+        return Map.of("thumbnail", "https://example.com/thumbnail/cat.png",
+                "full", "https://example.com/full/cat.png");
+    }
+
+    private StoredImage stored() {
+        return new StoredImage(urls(), null);
+    }
+
+    private MockMultipartFile file() {
+        return new MockMultipartFile("file", "cat.png", "image/png", png(1, 1));
+    }
+
+    // A PNG signature and header with no pixel data: enough to pass validation, which never decodes.
+    private static byte[] png(int width, int height) {
+        ByteBuffer header = ByteBuffer.allocate(13).putInt(width).putInt(height).put(new byte[]{8, 2, 0, 0, 0});
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        png.writeBytes(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        png.writeBytes(chunk("IHDR", header.array()));
+        png.writeBytes(chunk("IEND", new byte[0]));
+        return png.toByteArray();
+    }
+
+    private static byte[] chunk(String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        return ByteBuffer.allocate(12 + data.length)
+                .putInt(data.length).put(typeBytes).put(data).putInt((int) crc.getValue())
+                .array();
+    }
+}
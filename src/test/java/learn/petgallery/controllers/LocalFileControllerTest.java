@@ -0,0 +1,161 @@
+package learn.petgallery.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.data.LocalDiskFileRepository;
+import learn.petgallery.domain.FileService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@SpringBootTest(properties = {
+        "file.store=local",
+        "file.local.root=${java.io.tmpdir}/pet-gallery-test/local-files"
+})
+@AutoConfigureMockMvc
+class LocalFileControllerTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    LocalDiskFileRepository repository;
+
+    @Autowired
+    ApplicationContext context;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    private byte[] image;
+    private String fullPath;
+
+    @BeforeEach
+    void upload() throws Exception {
+        cacheManager.getCache(FileService.UPLOAD_INDEX).clear();
+        image = noise(300, 200);
+        MvcResult started = mvc.perform(multipart("/api/file")
+                        .file(new MockMultipartFile("file", "dog.png", "image/png", image)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String body = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        Map<?, ?> urls = new ObjectMapper().readValue(body, Map.class);
+        fullPath = URI.create((String) urls.get("full")).getPath();
+    }
+
+    @Test
+    void shouldStoreUnderHashShardWithoutS3() {
+        String name = fullPath.substring(fullPath.lastIndexOf('/') + 1);
+        Path stored = repository.resolve("full", name);
+
+        assertTrue(Files.isRegularFile(stored));
+        assertEquals(name.substring(0, 2), stored.getParent().getFileName().toString());
+        assertEquals(0, context.getBeanNamesForType(S3Client.class).length);
+    }
+
+    @Test
+    void shouldServeStoredFile() throws Exception {
+        byte[] served = mvc.perform(get(fullPath))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(image, served);
+    }
+
+    @Test
+    void shouldServeSingleRange() throws Exception {
+        byte[] served = mvc.perform(get(fullPath).header(HttpHeaders.RANGE, "bytes=10-19"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 10-19/" + image.length))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(image, 10, 20), served);
+    }
+
+    @Test
+    void shouldServeSuffixRange() throws Exception {
+        byte[] served = mvc.perform(get(fullPath).header(HttpHeaders.RANGE, "bytes=-5"))
+                .andExpect(status().isPartialContent())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(Arrays.copyOfRange(image, image.length - 5, image.length), served);
+    }
+
+    @Test
+    void shouldIgnoreRangeWhenIfRangeIsStale() throws Exception {
+        mvc.perform(get(fullPath)
+                        .header(HttpHeaders.RANGE, "bytes=0-9")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldReturn416ForRangePastEnd() throws Exception {
+        mvc.perform(get(fullPath).header(HttpHeaders.RANGE, "bytes=" + image.length + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + image.length));
+    }
+
+    @Test
+    void shouldReturn304WhenETagMatches() throws Exception {
+        String etag = mvc.perform(get(fullPath))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get(fullPath).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+    }
+
+    @Test
+    void shouldReturn404ForMissingOrInvalidKey() throws Exception {
+        mvc.perform(get("/api/file/full/0000000000.png"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/file/full/..hidden"))
+                .andExpect(status().isNotFound());
+        mvc.perform(get("/api/file/full/.upload-1.tmp"))
+                .andExpect(status().isNotFound());
+    }
+
+    private static byte[] noise(int width, int height) throws Exception {
+        Random random = new Random(7);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -1,24 +1,43 @@
 package learn.petgallery.controllers;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import learn.petgallery.SerializationConfig;
 import learn.petgallery.data.PetRepository;
+import learn.petgallery.domain.PetNameIndex;
+import learn.petgallery.domain.PetService;
 import learn.petgallery.models.Pet;
+import learn.petgallery.models.PetListVersion;
+import learn.petgallery.models.PetName;
+import learn.petgallery.models.PetPage;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.web.servlet.MockMvc;
 
 import javax.swing.text.html.Option;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -31,6 +50,18 @@ class PetControllerTest {
     @Autowired
     MockMvc mvc;
 
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    PetNameIndex nameIndex;
+
+    @BeforeEach
+    void clearCache() {
+        cacheManager.getCache(PetService.PET_CACHE).clear();
+        when(petRepository.findListVersion()).thenReturn(new PetListVersion(3, 3, 7L, null));
+    }
+
     @Test
     void shouldFindAllAndReturnHttp200() throws Exception {
 
@@ -50,6 +81,164 @@ class PetControllerTest {
                 .andExpect(content().json(expectedJson));
     }
 
+    @Test
+    void shouldFindAllAsSmileWhenAccepted() throws Exception {
+        List<Pet> pets = binaryPets();
+        when(petRepository.findAll()).thenReturn(pets);
+
+        byte[] body = mvc.perform(get("/api/pet").accept("application/x-jackson-smile"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-jackson-smile"))
+                .andExpect(header().stringValues("Vary", hasItem("Accept")))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        ObjectMapper smile = SerializationConfig.binaryMapper(new Jackson2ObjectMapperBuilder(),
+                SerializationConfig.smileFactory());
+        assertEquals(pets, smile.readValue(body, new TypeReference<List<Pet>>() {}));
+    }
+
+    @Test
+    void shouldFindAllAsCborWhenAccepted() throws Exception {
+        List<Pet> pets = binaryPets();
+        when(petRepository.findAll()).thenReturn(pets);
+
+        byte[] body = mvc.perform(get("/api/pet").accept("application/cbor"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/cbor"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        ObjectMapper cbor = SerializationConfig.binaryMapper(new Jackson2ObjectMapperBuilder(),
+                SerializationConfig.cborFactory());
+        assertEquals(pets, cbor.readValue(body, new TypeReference<List<Pet>>() {}));
+    }
+
+    @Test
+    void shouldFindAllAsJsonWithoutAccept() throws Exception {
+        when(petRepository.findAll()).thenReturn(binaryPets());
+
+        mvc.perform(get("/api/pet"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[0].imageVariants.thumbnail").value("https://example.com/t/image-1.png"));
+    }
+
+    @Test
+    void shouldReturnHttp304ForUnchangedList() throws Exception {
+        String eTag = mvc.perform(get("/api/pet"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        assertTrue(eTag.startsWith("W/"));
+        mvc.perform(get("/api/pet").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        verify(petRepository).findAll();
+    }
+
+    @Test
+    void shouldReturnHttp200ForChangedList() throws Exception {
+        String eTag = mvc.perform(get("/api/pet"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        when(petRepository.findListVersion()).thenReturn(new PetListVersion(3, 3, 8L, null));
+
+        mvc.perform(get("/api/pet").header("If-None-Match", eTag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void shouldFindPageAndReturnHttp200() throws Exception {
+
+        List<Pet> pets = List.of(
+                new Pet(4, "Fluffy", "https://example.com/image-1.png"),
+                new Pet(5, "Smoke", "https://example.com/image-2.jpg"),
+                new Pet(6, "Magpie", "https://example.com/image-3.jpg")
+        );
+
+        when(petRepository.findByPetIdGreaterThanOrderByPetIdAsc(3, PageRequest.of(0, 3))).thenReturn(pets);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String expectedJson = objectMapper.writeValueAsString(new PetPage(pets.subList(0, 2), 5));
+
+        mvc.perform(get("/api/pet?after=3&limit=2"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(expectedJson));
+    }
+
+    @Test
+    void shouldNotFindPageWithInvalidLimitAndReturnHttp400() throws Exception {
+        mvc.perform(get("/api/pet?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldExportAllAsNdjson() throws Exception {
+        List<Pet> pets = List.of(
+                new Pet(1, "Fluffy", "https://example.com/image-1.png"),
+                new Pet(2, "Smoke", "https://example.com/image-2.jpg"));
+        when(petRepository.streamAll()).thenReturn(pets.stream());
+
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        String body = mvc.perform(get("/api/pet/export"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", "application/x-ndjson;charset=UTF-8"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("Fluffy", objectMapper.readTree(lines[0]).get("name").asText());
+        assertEquals("Smoke", objectMapper.readTree(lines[1]).get("name").asText());
+        verify(petRepository).detach(pets.get(0));
+        verify(petRepository).detach(pets.get(1));
+    }
+
+    @Test
+    void shouldExportAllAsJsonArray() throws Exception {
+        List<Pet> pets = List.of(
+                new Pet(1, "Fluffy", "https://example.com/image-1.png"),
+                new Pet(2, "Smoke", "https://example.com/image-2.jpg"));
+        when(petRepository.streamAll()).thenReturn(pets.stream());
+
+        mvc.perform(get("/api/pet/export").param("format", "json"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[1].name").value("Smoke"));
+    }
+
+    @Test
+    void shouldNotExportUnknownFormatAndReturnHttp400() throws Exception {
+        mvc.perform(get("/api/pet/export").param("format", "csv"))
+                .andExpect(status().isBadRequest());
+
+        verify(petRepository, never()).streamAll();
+    }
+
+    @Test
+    void shouldSearchIndexedNamesAndReturnHttp200() throws Exception {
+        when(petRepository.findNamesAfter(0, PageRequest.of(0, 2)))
+                .thenReturn(List.of(new PetName(1, "Fluffy"), new PetName(2, "Smoke")));
+        when(petRepository.findNamesAfter(2, PageRequest.of(0, 2)))
+                .thenReturn(List.of(new PetName(3, "Magpie Fluff")));
+        when(petRepository.findAllById(List.of(1, 3))).thenReturn(List.of(
+                new Pet(3, "Magpie Fluff", "https://example.com/image-3.jpg"),
+                new Pet(1, "Fluffy", "https://example.com/image-1.png")));
+        nameIndex.load();
+
+        mvc.perform(get("/api/pet/search").param("q", "flu"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(2))
+                .andExpect(jsonPath("$.pets[0].petId").value(1))
+                .andExpect(jsonPath("$.pets[1].petId").value(3))
+                .andExpect(jsonPath("$.next").doesNotExist());
+    }
+
+    @Test
+    void shouldNotSearchWithoutQueryAndReturnHttp400() throws Exception {
+        mvc.perform(get("/api/pet/search").param("q", " "))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void shouldFindByIdAndReturnHttp200() throws Exception {
 
@@ -65,6 +254,22 @@ class PetControllerTest {
                 .andExpect(content().json(expectedJson));
     }
 
+    @Test
+    void shouldReturnHttp304ForUnchangedPet() throws Exception {
+        Pet pet = new Pet(3, "Fluffy", "https://example.com/image-1.png");
+        pet.setVersion(2);
+
+        when(petRepository.findById(3)).thenReturn(Optional.of(pet));
+
+        mvc.perform(get("/api/pet/3"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"2\""));
+
+        mvc.perform(get("/api/pet/3").header("If-None-Match", "\"2\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
     @Test
     void findByIdShouldReturn404ForMissingPet() throws Exception {
         mvc.perform(get("/api/pet/3"))
@@ -111,16 +316,67 @@ class PetControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    void shouldAddBatchAndReturnPerItemResults() throws Exception {
+        Pet pet = new Pet(0, "Fritzy", "https://example.com/image-33.png");
+        Pet createdPet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
+        Pet invalidPet = new Pet(0, "", "https://example.com/image-34.png");
+
+        when(petRepository.saveAll(List.of(pet))).thenReturn(List.of(createdPet));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String jsonIn = objectMapper.writeValueAsString(List.of(pet, invalidPet));
+
+        var request = post("/api/pet/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonIn);
+
+        mvc.perform(request)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[0].payload.petId").value(4))
+                .andExpect(jsonPath("$[1].resultType").value("INVALID"))
+                .andExpect(jsonPath("$[1].messages[0]").value("Pet name is required."));
+    }
+
+    @Test
+    void shouldNotAddEmptyBatchAndReturnHttp400() throws Exception {
+        var request = post("/api/pet/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]");
+
+        mvc.perform(request)
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void shouldUpdateValidPetAndReturnHttp204() throws Exception {
         Pet pet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
 
-        when(petRepository.findById(4)).thenReturn(Optional.of(pet));
+        when(petRepository.updatePet(pet)).thenReturn(1);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String jsonIn = objectMapper.writeValueAsString(pet);
+
+        var request = put("/api/pet/4")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonIn);
+
+        mvc.perform(request)
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void shouldUpdatePetAtMatchingVersionAndReturnHttp204() throws Exception {
+        Pet pet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
+
+        when(petRepository.updatePetIfVersion(pet, 2)).thenReturn(1);
 
         ObjectMapper objectMapper = new ObjectMapper();
         String jsonIn = objectMapper.writeValueAsString(pet);
 
         var request = put("/api/pet/4")
+                .header("If-Match", "\"2\"")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(jsonIn);
 
@@ -128,6 +384,43 @@ class PetControllerTest {
                 .andExpect(status().isNoContent());
     }
 
+    @Test
+    void shouldNotUpdateChangedPetAndReturnHttp412() throws Exception {
+        Pet pet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
+
+        when(petRepository.updatePetIfVersion(pet, 2)).thenReturn(0);
+        when(petRepository.existsById(4)).thenReturn(true);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String jsonIn = objectMapper.writeValueAsString(pet);
+
+        var request = put("/api/pet/4")
+                .header("If-Match", "\"2\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonIn);
+
+        mvc.perform(request)
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void shouldNotUpdatePetWithWeakIfMatchAndReturnHttp412() throws Exception {
+        Pet pet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        String jsonIn = objectMapper.writeValueAsString(pet);
+
+        var request = put("/api/pet/4")
+                .header("If-Match", "W/\"2\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(jsonIn);
+
+        mvc.perform(request)
+                .andExpect(status().isPreconditionFailed());
+
+        verify(petRepository, never()).updatePetIfVersion(any(), any(Long.class));
+    }
+
     @Test
     void shouldNotUpdatePetIfIdsDoNotMatchAndReturnHttp405() throws Exception {
         Pet pet = new Pet(4, "Fritzy", "https://example.com/image-33.png");
@@ -179,7 +472,7 @@ class PetControllerTest {
 
     @Test
     void shouldDeletePetAndReturnHttp204() throws Exception {
-        when(petRepository.findById(4)).thenReturn(Optional.of(new Pet()));
+        when(petRepository.deletePet(4)).thenReturn(1);
 
         var request = delete("/api/pet/4");
 
@@ -194,4 +487,12 @@ class PetControllerTest {
         mvc.perform(request)
                 .andExpect(status().isNotFound());
     }
-}
\ No newline at end of file
+
+    private List<Pet> binaryPets() {
+        Pet first = new Pet(1, "Fluffy", "https://example.com/image-1.png",
+                Map.of("thumbnail", "https://example.com/t/image-1.png"));
+        first.setVersion(2);
+        first.setUpdatedAt(Instant.ofEpochMilli(1_700_000_000_123L));
+        return List.of(first, new Pet(2, "Smoke", "https://example.com/image-2.jpg"));
+    }
+}
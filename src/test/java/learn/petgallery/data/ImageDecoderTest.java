@@ -0,0 +1,85 @@
+package learn.petgallery.data;
+
+import org.imgscalr.Scalr;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDecoderTest {
+
+    @Test
+    void shouldKeepHeadroomAboveTarget() {
+        ImageDecoder decoder = new ImageDecoder(2);
+
+        assertEquals(5, decoder.subsampling(6000, 600));
+        assertEquals(2, decoder.subsampling(6000, 1200));
+        assertEquals(1, decoder.subsampling(2000, 1200));
+        assertEquals(1, decoder.subsampling(6000, 0));
+        assertEquals(1, new ImageDecoder(0).subsampling(6000, 200));
+    }
+
+    @Test
+    void shouldDecodeNearTargetWidth() throws IOException {
+        MockMultipartFile file = jpeg(2400, 1800);
+
+        BufferedImage full = new ImageDecoder(2).decode(file, 0);
+        BufferedImage subsampled = new ImageDecoder(2).decode(file, 200);
+
+        assertEquals(2400, full.getWidth());
+        assertEquals(400, subsampled.getWidth());
+        assertEquals(300, subsampled.getHeight());
+    }
+
+    @Test
+    void shouldResizeToNearlyTheSamePixels() throws IOException {
+        MockMultipartFile file = jpeg(2400, 1800);
+
+        BufferedImage reference = Scalr.resize(new ImageDecoder(0).decode(file, 200), Scalr.Mode.FIT_TO_WIDTH, 200);
+        BufferedImage resized = Scalr.resize(new ImageDecoder(2).decode(file, 200), Scalr.Mode.FIT_TO_WIDTH, 200);
+
+        assertEquals(reference.getWidth(), resized.getWidth());
+        assertEquals(reference.getHeight(), resized.getHeight());
+        assertTrue(meanDifference(reference, resized) < 3.0);
+    }
+
+    @Test
+    void shouldRejectUndecodableFile() {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.png", "image/png", "not an image".getBytes());
+
+        assertThrows(IOException.class, () -> new ImageDecoder(2).decode(file, 200));
+    }
+
+    // Mean absolute difference per channel, 0-255.
+    private static double meanDifference(BufferedImage a, BufferedImage b) {
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >> shift) & 0xFF) - ((q >> shift) & 0xFF));
+                }
+            }
+        }
+        return (double) total / (a.getWidth() * a.getHeight() * 3);
+    }
+
+    // A smooth gradient, the kind of content a phone photo mostly is.
+    private static MockMultipartFile jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | 128);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return new MockMultipartFile("file", "photo.jpg", "image/jpeg", out.toByteArray());
+    }
+}
@@ -0,0 +1,140 @@
+package learn.petgallery.data;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageEncoderTest {
+
+    private static final ImageFormat PNG = new ImageFormat("png", "image/png");
+
+    @Test
+    void shouldConvertPngWithoutAlphaOnlyWhenEnabled() {
+        ImageEncoder converting = encoder(0.85f, true);
+        ImageEncoder keeping = encoder(0.85f, false);
+
+        assertEquals(ImageEncoder.JPEG, converting.target(PNG, false));
+        assertEquals(PNG, converting.target(PNG, true));
+        assertEquals(PNG, keeping.target(PNG, false));
+    }
+
+    @Test
+    void shouldOnlyAddWebpWhenWriterIsInstalled() {
+        ImageEncoder encoder = new ImageEncoder(0.85f, true, false, true, true);
+
+        boolean installed = ImageIO.getImageWritersByFormatName("webp").hasNext();
+        assertEquals(installed ? List.of(PNG, ImageEncoder.WEBP) : List.of(PNG), encoder.formats(PNG));
+    }
+
+    @Test
+    void shouldEncodeJpegAtConfiguredQuality() throws IOException {
+        BufferedImage image = S3FileRepositoryTest.decode(S3FileRepositoryTest.noise("noise.png", 300, 200).getBytes());
+
+        byte[] low = encode(encoder(0.3f, false), image, ImageEncoder.JPEG);
+        byte[] high = encode(encoder(0.95f, false), image, ImageEncoder.JPEG);
+
+        assertTrue(low.length < high.length);
+        assertEquals(300, S3FileRepositoryTest.decode(low).getWidth());
+    }
+
+    @Test
+    void shouldFlattenAlphaForJpeg() throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+
+        byte[] encoded = encode(encoder(0.85f, false), image, ImageEncoder.JPEG);
+
+        BufferedImage decoded = S3FileRepositoryTest.decode(encoded);
+        assertFalse(decoded.getColorModel().hasAlpha());
+        assertEquals(0xFFFFFFFF, decoded.getRGB(0, 0));
+    }
+
+    @Test
+    void shouldStripJpegMetadataSegments() throws IOException {
+        byte[] clean = encode(encoder(0.85f, false), new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB),
+                ImageEncoder.JPEG);
+        // SOI, then an EXIF APP1 and a comment ahead of the encoder's own segments.
+        byte[] tagged = insert(clean, 2, segment(0xE1, "Exif\0\0camera"), segment(0xFE, "a comment"));
+
+        assertArrayEquals(clean, copy(tagged, ImageEncoder.JPEG));
+    }
+
+    @Test
+    void shouldStripPngTextChunks() throws IOException {
+        byte[] clean = encode(encoder(0.85f, false), new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), PNG);
+        // After the 8 byte signature and the 25 byte IHDR chunk.
+        byte[] tagged = insert(clean, 33, chunk("tEXt", "Author\0someone"), chunk("tIME", "1234567"));
+
+        assertArrayEquals(clean, copy(tagged, PNG));
+    }
+
+    @Test
+    void shouldCopyUnchangedWhenNotStripping() throws IOException {
+        byte[] tagged = insert(encode(encoder(0.85f, false), new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB), PNG),
+                33, chunk("tEXt", "Author\0someone"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ImageEncoder(0.85f, true, false, false, false).copy(new ByteArrayInputStream(tagged), PNG, out);
+
+        assertArrayEquals(tagged, out.toByteArray());
+    }
+
+    @Test
+    void shouldRejectQualityOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> encoder(0f, false));
+        assertThrows(IllegalArgumentException.class, () -> encoder(1.5f, false));
+    }
+
+    private static ImageEncoder encoder(float quality, boolean pngToJpeg) {
+        return new ImageEncoder(quality, true, pngToJpeg, true, false);
+    }
+
+    private static byte[] encode(ImageEncoder encoder, BufferedImage image, ImageFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] copy(byte[] bytes, ImageFormat format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder(0.85f, false).copy(new ByteArrayInputStream(bytes), format, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] segment(int marker, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        int length = data.length + 2;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) marker, (byte) (length >> 8), (byte) length});
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    // The CRC is left zero: the stripper never checks it and the chunk never reaches a decoder.
+    private static byte[] chunk(String type, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0, 0, (byte) (data.length >> 8), (byte) data.length});
+        out.writeBytes(type.getBytes(StandardCharsets.ISO_8859_1));
+        out.writeBytes(data);
+        out.writeBytes(new byte[4]);
+        return out.toByteArray();
+    }
+
+    private static byte[] insert(byte[] bytes, int offset, byte[]... inserted) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bytes, 0, offset);
+        for (byte[] part : inserted) {
+            out.writeBytes(part);
+        }
+        out.write(bytes, offset, bytes.length - offset);
+        return out.toByteArray();
+    }
+}
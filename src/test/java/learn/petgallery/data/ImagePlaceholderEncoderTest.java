@@ -0,0 +1,73 @@
+package learn.petgallery.data;
+
+import learn.petgallery.models.ImagePlaceholder;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePlaceholderEncoderTest {
+
+    private final ImagePlaceholderEncoder encoder = new ImagePlaceholderEncoder();
+
+    @Test
+    void shouldEncodeSolidColor() {
+        ImagePlaceholder placeholder = encoder.encode(solid(400, 300, new Color(0x33, 0x66, 0x99)));
+
+        assertEquals("#336699", placeholder.getDominantColor());
+        // Size flag 'L' is 4x3 components, then a quantised maximum of zero and the average color.
+        assertEquals("L0", placeholder.getBlurHash().substring(0, 2));
+        assertEquals(28, placeholder.getBlurHash().length());
+        // Every AC component is zero, which quantises to 9 * 19 * 19 + 9 * 19 + 9 = 3429, "fQ" in base 83.
+        assertEquals("fQ".repeat(11), placeholder.getBlurHash().substring(6));
+    }
+
+    @Test
+    void shouldUsePortraitComponentsForTallImage() {
+        ImagePlaceholder placeholder = encoder.encode(solid(300, 400, Color.RED));
+
+        assertEquals('T', placeholder.getBlurHash().charAt(0));
+        assertEquals(28, placeholder.getBlurHash().length());
+    }
+
+    @Test
+    void shouldPickMostCommonColorOverAverage() {
+        BufferedImage image = solid(400, 400, Color.GREEN);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 400, 100);
+        graphics.dispose();
+
+        ImagePlaceholder placeholder = encoder.encode(image);
+
+        assertEquals("#00ff00", placeholder.getDominantColor());
+        assertNotEquals("L0", placeholder.getBlurHash().substring(0, 2));
+    }
+
+    @Test
+    void shouldTreatTransparencyAsWhite() {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+
+        assertEquals("#ffffff", encoder.encode(image).getDominantColor());
+    }
+
+    @Test
+    void shouldEncodeSinglePixel() {
+        ImagePlaceholder placeholder = encoder.encode(solid(1, 1, Color.BLACK));
+
+        assertEquals("#000000", placeholder.getDominantColor());
+        assertEquals(28, placeholder.getBlurHash().length());
+    }
+
+    private BufferedImage solid(int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,394 @@
+package learn.petgallery.data;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import learn.petgallery.exceptions.FileUploadException;
+import learn.petgallery.models.ImagePlaceholder;
+import learn.petgallery.models.StoredImage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Utilities;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class S3FileRepositoryTest {
+
+    @MockBean
+    S3Client s3;
+
+    @MockBean
+    S3AsyncClient s3Async;
+
+    @Autowired
+    S3FileRepository repository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setup() {
+        when(s3.utilities()).thenReturn(S3Utilities.builder().region(Region.US_EAST_2).build());
+    }
+
+    @Test
+    void shouldStoreEveryVariantOfWideImage() throws Exception {
+        Map<String, byte[]> stored = stubPutObject();
+
+        Map<String, String> urls = upload(image("wide.png", "image/png", 1600, 800));
+
+        assertEquals(List.of("thumbnail", "medium", "full"), List.copyOf(urls.keySet()));
+        assertTrue(urls.get("full").endsWith("/full/wide.png"));
+        assertTrue(urls.get("thumbnail").endsWith("/thumbnail/wide.png"));
+        assertEquals(1200, decode(stored.get("full/wide.png")).getWidth());
+        assertEquals(600, decode(stored.get("medium/wide.png")).getWidth());
+        assertEquals(200, decode(stored.get("thumbnail/wide.png")).getWidth());
+        assertEquals(100, decode(stored.get("thumbnail/wide.png")).getHeight());
+    }
+
+    @Test
+    void shouldStoreNarrowImageBytesUnchangedOnce() throws Exception {
+        Map<String, byte[]> stored = stubPutObject();
+        MockMultipartFile file = image("narrow.png", "image/png", 800, 600);
+
+        Map<String, String> urls = upload(file);
+
+        // 800px already fits "full" (1200), so only the two smaller variants are re-encoded.
+        assertEquals(Set.of("full/narrow.png", "medium/narrow.png", "thumbnail/narrow.png"), stored.keySet());
+        assertArrayEquals(file.getBytes(), stored.get("full/narrow.png"));
+        assertEquals(600, decode(stored.get("medium/narrow.png")).getWidth());
+        assertTrue(urls.get("full").endsWith("/full/narrow.png"));
+    }
+
+    @Test
+    void shouldPointSmallImageVariantsAtOneStoredOriginal() throws Exception {
+        Map<String, byte[]> stored = stubPutObject();
+
+        Map<String, String> urls = upload(image("tiny.png", "image/png", 150, 100));
+
+        assertEquals(Set.of("full/tiny.png"), stored.keySet());
+        assertEquals(urls.get("full"), urls.get("thumbnail"));
+        assertEquals(urls.get("full"), urls.get("medium"));
+    }
+
+    @Test
+    void shouldStripMetadataFromStoredOriginal() throws Exception {
+        Map<String, byte[]> stored = stubPutObject();
+        byte[] clean = image("tagged.png", "image/png", 150, 100).getBytes();
+        // A tEXt chunk right after IHDR; its CRC is never checked on the way through.
+        byte[] text = {0, 0, 0, 5, 't', 'E', 'X', 't', 'a', 0, 'b', 'c', 'd', 0, 0, 0, 0};
+        ByteArrayOutputStream tagged = new ByteArrayOutputStream();
+        tagged.write(clean, 0, 33);
+        tagged.write(text);
+        tagged.write(clean, 33, clean.length - 33);
+
+        upload(new MockMultipartFile("file", "tagged.png", "image/png", tagged.toByteArray()));
+
+        assertArrayEquals(clean, stored.get("full/tagged.png"));
+        assertNotNull(meterRegistry.find("image.upload.size.ratio").tag("variant", "full").summary());
+    }
+
+    @Test
+    void shouldRejectFileThatIsNotAnImage() {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.png", "image/png", "not an image".getBytes());
+
+        assertThrows(FileUploadException.class, () -> upload(file));
+        verify(s3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void shouldUploadLargeEncodedImageInParts() throws Exception {
+        Map<String, Map<Integer, byte[]>> parts = stubMultipartUpload();
+
+        upload(noise("large.png", 1600, 1200));
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3, atLeastOnce()).completeMultipartUpload(complete.capture());
+
+        Map<Integer, byte[]> full = parts.get("full/large.png");
+        assertTrue(full.size() > 1);
+        assertTrue(complete.getAllValues().stream()
+                .anyMatch(request -> request.key().equals("full/large.png")
+                        && request.multipartUpload().parts().size() == full.size()));
+        assertEquals(1200, decode(join(full)).getWidth());
+    }
+
+    @Test
+    void shouldUploadLargeOriginalInParts() throws Exception {
+        Map<String, Map<Integer, byte[]>> parts = stubMultipartUpload();
+        MockMultipartFile file = noise("original.png", 400, 300);
+
+        upload(file);
+
+        assertArrayEquals(file.getBytes(), join(parts.get("full/original.png")));
+        assertFalse(parts.containsKey("medium/original.png"));
+    }
+
+    @Test
+    void shouldAbortMultipartUploadWhenPartFails() throws Exception {
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().message("slow down").build());
+
+        assertThrows(FileUploadException.class, () -> upload(noise("failing.png", 400, 300)));
+        verify(s3, atLeastOnce()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void shouldReuseOneClientAndRecordTimings() throws Exception {
+        double before = uploadCount();
+
+        upload(image("one.png", "image/png", 200, 100));
+        upload(image("two.png", "image/png", 200, 100));
+
+        verify(s3, times(2)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertEquals(before + 2, uploadCount());
+    }
+
+    @Test
+    void shouldTimeEachStageOfWideImage() throws Exception {
+        stubPutObject();
+        double before = stageCount("resize");
+
+        upload(image("stages.png", "image/png", 1600, 800));
+
+        assertEquals(before + 3, stageCount("resize"));
+        for (String stage : List.of("probe", "decode", "encode", "store")) {
+            assertTrue(stageCount(stage) > 0, stage);
+        }
+        assertNotNull(meterRegistry.find("image.upload.bytes.out").tag("variant", "thumbnail").summary());
+        assertNotNull(meterRegistry.find("image.resize.ratio").summary());
+    }
+
+    @Test
+    void shouldComputePlaceholderWithVariants() throws Exception {
+        stubPutObject();
+        double before = stageCount("placeholder");
+
+        StoredImage image = repository.upload(image("black.png", "image/png", 1600, 800), "black.png");
+
+        ImagePlaceholder placeholder = image.getPlaceholder();
+        assertEquals("#000000", placeholder.getDominantColor());
+        // Landscape: 4x3 components, so 4 + 2 x 11 characters.
+        assertEquals(28, placeholder.getBlurHash().length());
+        assertEquals(before + 1, stageCount("placeholder"));
+    }
+
+    @Test
+    void shouldRecordFailureByExceptionType() throws Exception {
+        when(s3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().message("denied").build());
+
+        assertThrows(FileUploadException.class, () -> upload(image("failed.png", "image/png", 200, 100)));
+
+        assertNotNull(meterRegistry.find("image.upload")
+                .tags("outcome", "failure", "exception", "S3Exception").timer());
+    }
+
+    @Test
+    void shouldWrapS3Failures() throws Exception {
+        when(s3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().message("denied").build());
+
+        assertThrows(FileUploadException.class,
+                () -> upload(image("denied.png", "image/png", 200, 100)));
+    }
+
+    @Test
+    void shouldStoreEveryVariantAsync() throws Exception {
+        Map<String, byte[]> stored = stubAsyncPutObject();
+        MockMultipartFile file = image("async.png", "image/png", 800, 600);
+
+        Map<String, String> urls = repository.uploadAsync(file, "async.png").join().getUrls();
+
+        assertEquals(List.of("thumbnail", "medium", "full"), List.copyOf(urls.keySet()));
+        assertArrayEquals(file.getBytes(), stored.get("full/async.png"));
+        assertEquals(600, decode(stored.get("medium/async.png")).getWidth());
+        assertEquals(200, decode(stored.get("thumbnail/async.png")).getWidth());
+        verify(s3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void shouldFailAsyncUploadWithFileUploadException() throws Exception {
+        when(s3Async.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().message("denied").build()));
+
+        CompletionException ex = assertThrows(CompletionException.class,
+                () -> repository.uploadAsync(image("async-denied.png", "image/png", 200, 100), "async-denied.png").join());
+
+        assertInstanceOf(FileUploadException.class, ex.getCause());
+        assertNotNull(meterRegistry.find("image.upload")
+                .tags("outcome", "failure", "exception", "S3Exception").timer());
+    }
+
+    @Test
+    void shouldFailAsyncUploadOfFileThatIsNotAnImage() {
+        MockMultipartFile file = new MockMultipartFile("file", "notes.png", "image/png", "not an image".getBytes());
+
+        CompletionException ex = assertThrows(CompletionException.class,
+                () -> repository.uploadAsync(file, "notes.png").join());
+
+        assertInstanceOf(FileUploadException.class, ex.getCause());
+        verify(s3Async, never()).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    // Stores under the original filename so the keys below stay readable.
+    private Map<String, String> upload(MultipartFile file) throws FileUploadException {
+        return repository.upload(file, file.getOriginalFilename()).getUrls();
+    }
+
+    private double stageCount(String stage) {
+        var timer = meterRegistry.find("image.upload.stage").tag("stage", stage).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private double uploadCount() {
+        var timer = meterRegistry.find("image.upload").tag("outcome", "success").timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private Map<String, byte[]> stubPutObject() {
+        Map<String, byte[]> stored = new ConcurrentHashMap<>();
+        when(s3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            stored.put(request.key(), readAll(invocation.getArgument(1)));
+            return PutObjectResponse.builder().build();
+        });
+        return stored;
+    }
+
+    private Map<String, byte[]> stubAsyncPutObject() {
+        Map<String, byte[]> stored = new ConcurrentHashMap<>();
+        when(s3Async.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            return readAllAsync(invocation.<AsyncRequestBody>getArgument(1)).thenApply(bytes -> {
+                stored.put(request.key(), bytes);
+                return PutObjectResponse.builder().build();
+            });
+        });
+        return stored;
+    }
+
+    private Map<String, Map<Integer, byte[]>> stubMultipartUpload() {
+        Map<String, Map<Integer, byte[]>> parts = new ConcurrentHashMap<>();
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenAnswer(invocation -> CreateMultipartUploadResponse.builder()
+                        .uploadId("upload-" + invocation.<CreateMultipartUploadRequest>getArgument(0).key())
+                        .build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            parts.computeIfAbsent(request.key(), key -> new ConcurrentSkipListMap<>())
+                    .put(request.partNumber(), readAll(invocation.getArgument(1)));
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        });
+        return parts;
+    }
+
+    private static byte[] join(Map<Integer, byte[]> parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts.values()) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    static MockMultipartFile noise(String filename, int width, int height) throws IOException {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return new MockMultipartFile("file", filename, "image/png", out.toByteArray());
+    }
+
+    static MockMultipartFile image(String filename, String contentType, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, filename.substring(filename.lastIndexOf(".") + 1), out);
+        return new MockMultipartFile("file", filename, contentType, out.toByteArray());
+    }
+
+    static byte[] readAll(RequestBody body) throws IOException {
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    static CompletableFuture<byte[]> readAllAsync(AsyncRequestBody body) {
+        CompletableFuture<byte[]> bytes = new CompletableFuture<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                out.writeBytes(chunk);
+            }
+
+            @Override
+            public void onError(Throwable ex) {
+                bytes.completeExceptionally(ex);
+            }
+
+            @Override
+            public void onComplete() {
+                bytes.complete(out.toByteArray());
+            }
+        });
+        return bytes;
+    }
+
+    static BufferedImage decode(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+}
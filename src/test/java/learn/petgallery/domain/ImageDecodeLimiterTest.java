@@ -0,0 +1,37 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDecodeLimiterTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void shouldSizeFromHeapAndCores() {
+        // Half of 512 MB holds four 64 MB decodes; eight cores would allow more.
+        assertEquals(4, ImageDecodeLimiter.limitFor(512 * MB, 8, 0.5, 64 * MB));
+        // Plenty of heap: the cores are the limit.
+        assertEquals(8, ImageDecodeLimiter.limitFor(16384 * MB, 8, 0.5, 64 * MB));
+        // Too little heap for even one still allows one.
+        assertEquals(1, ImageDecodeLimiter.limitFor(64 * MB, 8, 0.5, 64 * MB));
+    }
+
+    @Test
+    void shouldRefuseWhenEveryPermitIsTaken() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ImageDecodeLimiter limiter = new ImageDecodeLimiter(2, 0.5, 64 * MB, meterRegistry);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, meterRegistry.get("upload.decode.active").gauge().value());
+
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1, meterRegistry.get("upload.admission")
+                .tags("limiter", "decode", "outcome", "throttled").counter().count());
+    }
+}
@@ -0,0 +1,68 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PetNameIndexTest {
+
+    private PetNameIndex index;
+
+    @BeforeEach
+    void setup() {
+        index = new PetNameIndex(null, 100, new SimpleMeterRegistry());
+        index.put(1, "Fluffy the Cat");
+        index.put(2, "Smoke");
+        index.put(3, "Fluffy");
+        index.put(4, "Mister Fluffington");
+        index.put(5, "fluffy");
+    }
+
+    @Test
+    void shouldMatchTokenPrefixes() {
+        assertEquals(List.of(4), index.search("fluffing", 0, 10).petIds());
+        assertEquals(List.of(2), index.search("SMO", 0, 10).petIds());
+        assertEquals(List.of(), index.search("dog", 0, 10).petIds());
+    }
+
+    @Test
+    void shouldRequireEveryTerm() {
+        assertEquals(List.of(1), index.search("cat flu", 0, 10).petIds());
+        assertEquals(List.of(), index.search("cat smoke", 0, 10).petIds());
+    }
+
+    @Test
+    void shouldRankExactThenLeadingThenOther() {
+        PetNameIndex.Hits hits = index.search("fluff", 0, 10);
+
+        assertEquals(4, hits.total());
+        assertEquals(List.of(3, 5, 1, 4), hits.petIds());
+        assertEquals(List.of(3, 5, 1), index.search("fluffy", 0, 10).petIds());
+    }
+
+    @Test
+    void shouldPage() {
+        assertEquals(List.of(3, 5), index.search("flu", 0, 2).petIds());
+        assertEquals(List.of(1, 4), index.search("flu", 2, 2).petIds());
+        assertEquals(4, index.search("flu", 2, 2).total());
+        assertEquals(List.of(), index.search("flu", 4, 2).petIds());
+    }
+
+    @Test
+    void shouldFollowRenamesAndDeletes() {
+        index.put(2, "Fluff Ball");
+        index.remove(3);
+
+        assertEquals(List.of(), index.search("smoke", 0, 10).petIds());
+        assertEquals(List.of(5, 2, 1, 4), index.search("fluff", 0, 10).petIds());
+    }
+
+    @Test
+    void shouldIgnorePunctuationOnlyQuery() {
+        assertEquals(0, index.search(" -!", 0, 10).total());
+    }
+}
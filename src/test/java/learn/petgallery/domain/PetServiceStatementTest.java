@@ -0,0 +1,258 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import learn.petgallery.data.ImagePlaceholderRepository;
+import learn.petgallery.data.PetRepository;
+import learn.petgallery.models.ImagePlaceholder;
+import learn.petgallery.models.Pet;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs PetService against an embedded database and counts the JDBC statements each write issues.
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({PetService.class, PetNameIndex.class, SimpleMeterRegistry.class})
+@ImportAutoConfiguration(ValidationAutoConfiguration.class)
+class PetServiceStatementTest {
+
+    @Autowired
+    PetService petService;
+
+    @Autowired
+    PetRepository petRepository;
+
+    @Autowired
+    ImagePlaceholderRepository placeholderRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    Statistics statistics;
+    int petId;
+
+    @BeforeEach
+    void setup() {
+        petId = petRepository.saveAndFlush(new Pet(0, "Fluffy", "https://example.com/image-1.png")).getPetId();
+        entityManager.clear();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void updateShouldIssueOneStatement() {
+        Map<String, String> variants = Map.of("thumbnail", "https://example.com/thumbnail/image-2.png");
+        Result<Void> result = petService.update(
+                new Pet(petId, "Fluff", "https://example.com/image-2.png", variants));
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        entityManager.clear();
+        Pet updated = petRepository.findById(petId).orElseThrow();
+        assertEquals("Fluff", updated.getName());
+        assertEquals(variants, updated.getImageVariants());
+    }
+
+    @Test
+    void forEachPetShouldStreamInOneStatementAndDetach() {
+        petRepository.saveAndFlush(new Pet(0, "Smoke", "https://example.com/image-2.png"));
+        entityManager.clear();
+        statistics.clear();
+
+        List<Pet> seen = new ArrayList<>();
+        long count = petService.forEachPet(pet -> {
+            assertTrue(entityManager.contains(pet));
+            seen.add(pet);
+        });
+
+        assertEquals(2, count);
+        assertEquals(List.of("Fluffy", "Smoke"), seen.stream().map(Pet::getName).collect(Collectors.toList()));
+        assertTrue(seen.stream().noneMatch(entityManager::contains));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void addShouldCopyPlaceholderOfUploadedImage() {
+        String hash = "cb9ee84a55dfe3cb7c73189dfce37bc0ccb2dd549f8d83093eff135d12614191";
+        placeholderRepository.saveAndFlush(new ImagePlaceholder(hash, "#336699", "L0Gc%dfQfQfQfQfQfQfQfQfQfQfQ"));
+        statistics.clear();
+
+        Result<Pet> result = petService.add(new Pet(0, "Smoke", "https://example.com/full/" + hash + ".png"));
+
+        assertTrue(result.isSuccess());
+        entityManager.flush();
+        entityManager.clear();
+        Pet added = petRepository.findById(result.getPayload().getPetId()).orElseThrow();
+        assertEquals("#336699", added.getDominantColor());
+        assertEquals("L0Gc%dfQfQfQfQfQfQfQfQfQfQfQ", added.getBlurHash());
+    }
+
+    @Test
+    void updateShouldDropPlaceholderOfReplacedImage() {
+        String hash = "cb9ee84a55dfe3cb7c73189dfce37bc0ccb2dd549f8d83093eff135d12614191";
+        placeholderRepository.saveAndFlush(new ImagePlaceholder(hash, "#336699", "L0Gc%dfQfQfQfQfQfQfQfQfQfQfQ"));
+        petService.update(new Pet(petId, "Fluffy", "https://example.com/full/" + hash + ".png"));
+        entityManager.clear();
+        assertEquals("#336699", petRepository.findById(petId).orElseThrow().getDominantColor());
+        entityManager.clear();
+
+        petService.update(new Pet(petId, "Fluffy", "https://example.com/image-2.png"));
+
+        entityManager.clear();
+        assertNull(petRepository.findById(petId).orElseThrow().getDominantColor());
+    }
+
+    @Test
+    void updateShouldBumpVersion() {
+        Pet before = petRepository.findById(petId).orElseThrow();
+        entityManager.clear();
+
+        petService.update(new Pet(petId, "Fluff", "https://example.com/image-2.png"));
+
+        entityManager.clear();
+        Pet after = petRepository.findById(petId).orElseThrow();
+        assertEquals(before.getVersion() + 1, after.getVersion());
+        assertNotNull(after.getUpdatedAt());
+    }
+
+    @Test
+    void updateAtExpectedVersionShouldIssueOneStatement() {
+        long version = petRepository.findById(petId).orElseThrow().getVersion();
+        entityManager.clear();
+        statistics.clear();
+
+        Result<Void> result = petService.update(new Pet(petId, "Fluff", "https://example.com/image-2.png"), version);
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void updateAtStaleVersionShouldFailPrecondition() {
+        long version = petRepository.findById(petId).orElseThrow().getVersion();
+        entityManager.clear();
+        petService.update(new Pet(petId, "Fluff", "https://example.com/image-2.png"));
+
+        Result<Void> result = petService.update(new Pet(petId, "Smoke", "https://example.com/image-3.png"), version);
+
+        assertEquals(ResultType.PRECONDITION_FAILED, result.getResultType());
+        entityManager.clear();
+        assertEquals("Fluff", petRepository.findById(petId).orElseThrow().getName());
+    }
+
+    @Test
+    void listVersionShouldChangeOnEveryWrite() {
+        var initial = petService.findListVersion();
+
+        petService.update(new Pet(petId, "Fluff", "https://example.com/image-2.png"));
+        var updated = petService.findListVersion();
+        assertNotEquals(initial, updated);
+
+        petService.deleteById(petId);
+        var deleted = petService.findListVersion();
+        assertNotEquals(updated, deleted);
+        assertEquals(0, deleted.getCount());
+    }
+
+    @Test
+    void updateOfMissingPetShouldIssueOneStatement() {
+        Result<Void> result = petService.update(new Pet(petId + 1, "Fluff", "https://example.com/image-2.png"));
+
+        assertEquals(ResultType.NOT_FOUND, result.getResultType());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void deleteShouldIssueOneStatement() {
+        Result<Void> result = petService.deleteById(petId);
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertTrue(petRepository.findById(petId).isEmpty());
+    }
+
+    @Test
+    void addAllShouldBatchInserts() {
+        List<Pet> pets = IntStream.range(0, 20)
+                .mapToObj(i -> new Pet(0, "Pet " + i, "https://example.com/image-" + i + ".png"))
+                .collect(Collectors.toList());
+        pets.add(new Pet(0, "", "https://example.com/image.png"));
+
+        Result<List<Result<Pet>>> result = petService.addAll(pets);
+
+        assertTrue(result.isSuccess());
+        assertEquals(21, result.getPayload().size());
+        assertTrue(result.getPayload().get(0).getPayload().getPetId() > 0);
+        assertEquals(ResultType.INVALID, result.getPayload().get(20).getResultType());
+        assertEquals(20, statistics.getEntityInsertCount());
+        // At most one sequence call and one batched INSERT, rather than a statement per pet.
+        assertTrue(statistics.getPrepareStatementCount() <= 2);
+    }
+
+    @Test
+    void updateAllShouldSelectOnceAndBatchUpdates() {
+        int otherId = petRepository.saveAndFlush(new Pet(0, "Smoke", "https://example.com/image-2.png")).getPetId();
+        entityManager.clear();
+        statistics.clear();
+
+        Result<List<Result<Void>>> result = petService.updateAll(List.of(
+                new Pet(petId, "Fluff", "https://example.com/image-1.png"),
+                new Pet(otherId, "Smokey", "https://example.com/image-2.png"),
+                new Pet(otherId + 100, "Ghost", "https://example.com/image-3.png")));
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getPayload().get(0).isSuccess());
+        assertTrue(result.getPayload().get(1).isSuccess());
+        assertEquals(ResultType.NOT_FOUND, result.getPayload().get(2).getResultType());
+        assertEquals(2, statistics.getEntityUpdateCount());
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals("Smokey", petRepository.findById(otherId).orElseThrow().getName());
+    }
+
+    @Test
+    void deleteAllByIdShouldSelectOnceAndDeleteOnce() {
+        Result<List<Result<Void>>> result = petService.deleteAllById(List.of(petId, petId + 100));
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getPayload().get(0).isSuccess());
+        assertEquals(ResultType.NOT_FOUND, result.getPayload().get(1).getResultType());
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertTrue(petRepository.findById(petId).isEmpty());
+    }
+
+    @Test
+    void shouldRejectOversizedBatch() {
+        List<Integer> petIds = IntStream.range(0, 101).boxed().collect(Collectors.toList());
+
+        Result<List<Result<Void>>> result = petService.deleteAllById(petIds);
+
+        assertEquals(ResultType.INVALID, result.getResultType());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void deleteOfMissingPetShouldIssueOneStatement() {
+        Result<Void> result = petService.deleteById(petId + 1);
+
+        assertEquals(ResultType.NOT_FOUND, result.getResultType());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+}
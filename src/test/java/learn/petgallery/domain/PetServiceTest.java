@@ -2,15 +2,24 @@ package learn.petgallery.domain;
 
 import learn.petgallery.data.PetRepository;
 import learn.petgallery.models.Pet;
+import learn.petgallery.models.PetPage;
+import learn.petgallery.models.PetSearchPage;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.domain.PageRequest;
 
 import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
@@ -22,6 +31,14 @@ class PetServiceTest {
     @Autowired
     PetService petService;
 
+    @Autowired
+    CacheManager cacheManager;
+
+    @BeforeEach
+    void clearCache() {
+        cacheManager.getCache(PetService.PET_CACHE).clear();
+    }
+
     @Test
     void shouldFindAllPets() {
         List<Pet> pets = List.of(
@@ -37,6 +54,51 @@ class PetServiceTest {
         assertEquals(pets, actual);
     }
 
+    @Test
+    void shouldFindFirstPageWithNextCursor() {
+        List<Pet> pets = List.of(
+                new Pet(1, "Fluffy", "https://example.com/image-1"),
+                new Pet(2, "Smoke", "https://example.com/image-2"),
+                new Pet(3, "Magpie", "https://example.com/image-3")
+        );
+
+        when(petRepository.findByPetIdGreaterThanOrderByPetIdAsc(0, PageRequest.of(0, 3))).thenReturn(pets);
+
+        Result<PetPage> result = petService.findPage(null, null);
+
+        assertTrue(result.isSuccess());
+        assertEquals(pets.subList(0, 2), result.getPayload().getPets());
+        assertEquals(2, result.getPayload().getNext());
+    }
+
+    @Test
+    void shouldFindLastPageWithoutNextCursor() {
+        List<Pet> pets = List.of(new Pet(3, "Magpie", "https://example.com/image-3"));
+
+        when(petRepository.findByPetIdGreaterThanOrderByPetIdAsc(2, PageRequest.of(0, 3))).thenReturn(pets);
+
+        Result<PetPage> result = petService.findPage(2, 2);
+
+        assertTrue(result.isSuccess());
+        assertEquals(pets, result.getPayload().getPets());
+        assertNull(result.getPayload().getNext());
+    }
+
+    @Test
+    void shouldCapPageSizeAtMaximum() {
+        petService.findPage(null, 1000);
+
+        verify(petRepository).findByPetIdGreaterThanOrderByPetIdAsc(0, PageRequest.of(0, 4));
+    }
+
+    @Test
+    void shouldNotFindPageWithZeroLimit() {
+        Result<PetPage> result = petService.findPage(null, 0);
+
+        assertFalse(result.isSuccess());
+        assertEquals("Limit must be at least 1.", result.getMessages().get(0));
+    }
+
     @Test
     void shouldFindFluffyById() {
         Pet fluffy = new Pet(1, "Fluffy", "https://example.com/image-1");
@@ -48,6 +110,57 @@ class PetServiceTest {
         assertEquals(fluffy, actual);
     }
 
+    @Test
+    void shouldServeRepeatedFindByIdFromCache() {
+        Pet fluffy = new Pet(1, "Fluffy", "https://example.com/image-1");
+
+        when(petRepository.findById(1)).thenReturn(Optional.of(fluffy));
+
+        petService.findById(1);
+        Pet actual = petService.findById(1);
+
+        assertEquals(fluffy, actual);
+        verify(petRepository, times(1)).findById(1);
+    }
+
+    @Test
+    void shouldNotCacheMissingPet() {
+        when(petRepository.findById(1)).thenReturn(Optional.empty());
+
+        petService.findById(1);
+        petService.findById(1);
+
+        verify(petRepository, times(2)).findById(1);
+    }
+
+    @Test
+    void shouldEvictCachedPetOnUpdate() {
+        Pet fluffy = new Pet(1, "Fluffy", "https://example.com/image-1");
+        Pet renamed = new Pet(1, "Fluff", "https://example.com/image-1");
+
+        when(petRepository.findById(1)).thenReturn(Optional.of(fluffy));
+        petService.findById(1);
+
+        when(petRepository.findById(1)).thenReturn(Optional.of(renamed));
+        when(petRepository.updatePet(renamed)).thenReturn(1);
+        petService.update(renamed);
+
+        assertEquals(renamed, petService.findById(1));
+    }
+
+    @Test
+    void shouldEvictCachedPetOnDelete() {
+        Pet fluffy = new Pet(1, "Fluffy", "https://example.com/image-1");
+
+        when(petRepository.findById(1)).thenReturn(Optional.of(fluffy));
+        petService.findById(1);
+        when(petRepository.deletePet(1)).thenReturn(1);
+        petService.deleteById(1);
+
+        when(petRepository.findById(1)).thenReturn(Optional.empty());
+        assertNull(petService.findById(1));
+    }
+
     @Test
     void shouldAddValidPet() {
         Pet petToAdd = new Pet(0, "Atilla", "https://example.com/image-4");
@@ -61,6 +174,28 @@ class PetServiceTest {
         assertEquals(petAdded, result.getPayload());
     }
 
+    @Test
+    void shouldKeepNameIndexCurrentOnAddAndDelete() {
+        Pet petAdded = new Pet(40, "Zephyr", "https://example.com/image-40");
+        when(petRepository.save(any())).thenReturn(petAdded);
+        when(petRepository.findAllById(List.of(40))).thenReturn(List.of(petAdded));
+
+        petService.add(new Pet(0, "Zephyr", "https://example.com/image-40"));
+        assertEquals(List.of(petAdded), petService.search("zeph", null, null).getPayload().getPets());
+
+        when(petRepository.deletePet(40)).thenReturn(1);
+        petService.deleteById(40);
+        assertEquals(0, petService.search("zeph", null, null).getPayload().getTotal());
+    }
+
+    @Test
+    void shouldNotSearchWithNegativeOffset() {
+        Result<PetSearchPage> result = petService.search("fluffy", -1, null);
+
+        assertFalse(result.isSuccess());
+        assertEquals(ResultType.INVALID, result.getResultType());
+    }
+
     @Test
     void shouldNotAddPetWithBlankName() {
         Pet petToAdd = new Pet(0, " ", "https://example.com/image-4");
@@ -120,18 +255,19 @@ class PetServiceTest {
     void shouldUpdateValidPet() {
         Pet petToUpdate = new Pet(4, "New name", "https://localhost:3000/image.png");
 
-        when(petRepository.findById(4)).thenReturn(Optional.of(petToUpdate));
+        when(petRepository.updatePet(petToUpdate)).thenReturn(1);
 
         Result<Void> result = petService.update(petToUpdate);
 
         assertTrue(result.isSuccess());
+        verify(petRepository, never()).findById(4);
     }
 
     @Test
     void shouldNotUpdateNotExistingPet() {
         Pet petToUpdate = new Pet(4, "New name", "https://localhost:3000/image.png");
 
-        when(petRepository.findById(4)).thenReturn(Optional.empty());
+        when(petRepository.updatePet(petToUpdate)).thenReturn(0);
 
         Result<Void> result = petService.update(petToUpdate);
 
@@ -143,18 +279,17 @@ class PetServiceTest {
     @Test
     void shouldDeleteExistingById() {
 
-        Pet petToDelete = new Pet(4, "New name", "https://localhost:3000/image.png");
-
-        when(petRepository.findById(4)).thenReturn(Optional.of(petToDelete));
+        when(petRepository.deletePet(4)).thenReturn(1);
 
         Result<Void> result = petService.deleteById(4);
 
         assertTrue(result.isSuccess());
+        verify(petRepository, never()).findById(4);
     }
 
     @Test
     void shouldNotDeleteNotExistingPet() {
-        when(petRepository.findById(4)).thenReturn(Optional.empty());
+        when(petRepository.deletePet(4)).thenReturn(0);
 
         Result<Void> result = petService.deleteById(4);
 
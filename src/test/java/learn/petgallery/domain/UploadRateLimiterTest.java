@@ -0,0 +1,78 @@
+package learn.petgallery.domain;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void shouldAllowBurstThenThrottle() {
+        UploadRateLimiter limiter = limiter(3, 30);
+
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertEquals(0, limiter.tryAcquire("a"));
+        // 30 a minute is one every two seconds.
+        assertEquals(TimeUnit.SECONDS.toNanos(2), limiter.tryAcquire("a"));
+
+        assertEquals(3, count("admitted"));
+        assertEquals(1, count("throttled"));
+    }
+
+    @Test
+    void shouldRefillOverTime() {
+        UploadRateLimiter limiter = limiter(1, 30);
+        assertEquals(0, limiter.tryAcquire("a"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.SECONDS.toNanos(1), limiter.tryAcquire("a"));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, limiter.tryAcquire("a"));
+    }
+
+    @Test
+    void shouldNotRefillPastCapacity() {
+        UploadRateLimiter limiter = limiter(2, 30);
+        limiter.tryAcquire("a");
+
+        now.addAndGet(TimeUnit.HOURS.toNanos(1));
+
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+    }
+
+    @Test
+    void shouldKeepClientsApart() {
+        UploadRateLimiter limiter = limiter(1, 30);
+
+        assertEquals(0, limiter.tryAcquire("a"));
+        assertTrue(limiter.tryAcquire("a") > 0);
+        assertEquals(0, limiter.tryAcquire("b"));
+    }
+
+    @Test
+    void shouldNotLimitAtRateZero() {
+        UploadRateLimiter limiter = limiter(1, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.tryAcquire("a"));
+        }
+    }
+
+    private UploadRateLimiter limiter(int capacity, double perMinute) {
+        return new UploadRateLimiter(capacity, perMinute, 100, meterRegistry, now::get);
+    }
+
+    private double count(String outcome) {
+        return meterRegistry.get("upload.admission").tags("limiter", "rate", "outcome", outcome).counter().count();
+    }
+}